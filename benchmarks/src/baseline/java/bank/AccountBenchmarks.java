@@ -0,0 +1,167 @@
+/*
+ * AccountBenchmarks.java (baseline)
+ * The benchmarks of src/main/java/bank/AccountBenchmarks.java written against
+ * the original BankSimulation.java: double amounts, an ArrayList of
+ * Transaction objects per account and a HashMap registry. The baseline
+ * profile checks that file out of git next to this one (see the header of
+ * the main AccountBenchmarks for how to run both). Keep the benchmark names
+ * and workloads in step with the main file.
+ */
+
+package bank;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AccountBenchmarks {
+    static final int OPS_PER_ACCOUNT = 1024;
+    static final int REGISTRY_SIZE = 10_000;
+    static final int LOOKUPS = 1 << 14;
+    static final int STATEMENT_ENTRIES = 50;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        // Per-thread account numbers, so threads do not share a lock stripe.
+        String number;
+        int ops = OPS_PER_ACCOUNT;
+        Account account;
+        Transaction entry;
+        Account statement;
+        int lookup;
+
+        @Setup
+        public void setUp() {
+            number = "T" + THREADS.incrementAndGet();
+            statement = new SavingsAccount(number, "Alice", 5000.0, 2.5);
+            for (int i = 1; i < STATEMENT_ENTRIES; i++) statement.deposit(i);
+            entry = statement.transactions.get(statement.transactions.size() - 1);
+            lookup = ThreadLocalRandom.current().nextInt(LOOKUPS);
+        }
+
+        SavingsAccount savings() {
+            if (++ops > OPS_PER_ACCOUNT) {
+                ops = 1;
+                account = new SavingsAccount(number, "Alice", 5000.0, 2.5);
+            }
+            return (SavingsAccount) account;
+        }
+
+        CurrentAccount current(double initialBalance) {
+            if (++ops > OPS_PER_ACCOUNT) {
+                ops = 1;
+                account = new CurrentAccount(number, "Bob", initialBalance, 100_000.0, 50.0);
+            }
+            return (CurrentAccount) account;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Registry {
+        final String[] keys = new String[LOOKUPS];
+        Map<String, Account> accounts;
+
+        // BankSimulation keeps its registry in a private static HashMap and
+        // looks accounts up inline, so the benchmark reads that map directly.
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setUp() throws ReflectiveOperationException {
+            Field field = BankSimulation.class.getDeclaredField("accounts");
+            field.setAccessible(true);
+            accounts = (Map<String, Account>) field.get(null);
+            for (int i = 0; i < REGISTRY_SIZE; i++) {
+                String number = (i % 2 == 0 ? "SA" : "CA") + (100_000 + i);
+                accounts.put(number, i % 2 == 0
+                        ? new SavingsAccount(number, "Holder " + i, 5000.0, 2.5)
+                        : new CurrentAccount(number, "Holder " + i, 2000.0, 500.0, 50.0));
+            }
+            Random random = new Random(42);
+            for (int i = 0; i < LOOKUPS; i++) {
+                int n = random.nextInt(REGISTRY_SIZE);
+                keys[i] = (n % 2 == 0 ? "SA" : "CA") + (100_000 + n);
+            }
+        }
+    }
+
+    // Swallows printStatement's output for the length of a trial.
+    @State(Scope.Benchmark)
+    public static class Sink {
+        PrintStream out;
+
+        @Setup
+        public void setUp() throws IOException {
+            out = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override public void write(int b) { }
+                @Override public void write(byte[] b, int off, int len) { }
+            }, false, "UTF-8"));
+        }
+
+        @TearDown
+        public void tearDown() {
+            System.setOut(out);
+        }
+    }
+
+    @Benchmark
+    public double deposit(PerThread t) {
+        SavingsAccount acc = t.savings();
+        acc.deposit(1.0);
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public double savingsWithdraw(PerThread t) throws InsufficientFundsException {
+        SavingsAccount acc = t.savings();
+        acc.withdraw(1.0);
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public double currentWithdraw(PerThread t) throws InsufficientFundsException {
+        CurrentAccount acc = t.current(5000.0);
+        acc.withdraw(1.0);
+        return acc.getBalance();
+    }
+
+    // Every withdrawal lands in the overdraft, so each one also charges the fee.
+    @Benchmark
+    public double currentWithdrawOverdraft(PerThread t) throws InsufficientFundsException {
+        CurrentAccount acc = t.current(0);
+        acc.withdraw(1.0);
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public double applyMonthlyInterest(PerThread t) {
+        SavingsAccount acc = t.savings();
+        acc.applyMonthlyInterest();
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public String toTableString(PerThread t) {
+        return t.entry.toTableString();
+    }
+
+    @Benchmark
+    public void printStatement(PerThread t, Sink sink) {
+        t.statement.printStatement();
+    }
+
+    @Benchmark
+    public Account registryLookup(PerThread t, Registry registry) {
+        return registry.accounts.get(registry.keys[t.lookup++ & (LOOKUPS - 1)]);
+    }
+}
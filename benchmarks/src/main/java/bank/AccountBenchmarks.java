@@ -0,0 +1,174 @@
+/*
+ * AccountBenchmarks.java
+ * JMH benchmarks for the per-account operations: deposit, each withdraw
+ * override, applyMonthlyInterest, toTableString, printStatement and registry
+ * lookups. src/baseline/java has the same benchmarks written against the
+ * original double-based BankSimulation.java, so both report under the same
+ * names and can be compared line by line.
+ *
+ * How to build & run (from the repository root):
+ *   mvn -B package
+ *   java -jar benchmarks/target/benchmarks.jar -t 1
+ *   java -jar benchmarks/target/benchmarks.jar -t 4
+ * and for the baseline (BankSimulation.java at -Dbaseline.commit, default
+ * the repository's first commit):
+ *   mvn -B package -Pbaseline
+ *   java -jar benchmarks/target/benchmarks-baseline.jar -t 1
+ *
+ * Each thread works on its own accounts, so -t N measures how the operations
+ * scale rather than lock contention (BankBenchmark contended covers that);
+ * the registry is shared by all threads. Every operation appends a history
+ * entry, so an account is replaced by a fresh one after OPS_PER_ACCOUNT
+ * operations to keep the heap flat; the replacement is part of the measured
+ * time on both sides.
+ */
+
+package bank;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AccountBenchmarks {
+    static final int OPS_PER_ACCOUNT = 1024;
+    static final int REGISTRY_SIZE = 10_000;
+    static final int LOOKUPS = 1 << 14;
+    static final int STATEMENT_ENTRIES = 50;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        // Per-thread account numbers, so threads do not share a lock stripe.
+        String number;
+        int ops = OPS_PER_ACCOUNT;
+        Account account;
+        Transaction entry;
+        Account statement;
+        int lookup;
+
+        @Setup
+        public void setUp() {
+            number = "T" + THREADS.incrementAndGet();
+            statement = new SavingsAccount(number, "Alice", Money.ofMajor(5000), 25_000);
+            for (int i = 1; i < STATEMENT_ENTRIES; i++) statement.deposit(Money.ofMajor(i));
+            entry = statement.history.view(statement.history.size() - 1, null);
+            lookup = ThreadLocalRandom.current().nextInt(LOOKUPS);
+        }
+
+        SavingsAccount savings() {
+            if (++ops > OPS_PER_ACCOUNT) {
+                ops = 1;
+                account = new SavingsAccount(number, "Alice", Money.ofMajor(5000), 25_000);
+            }
+            return (SavingsAccount) account;
+        }
+
+        CurrentAccount current(long initialBalance) {
+            if (++ops > OPS_PER_ACCOUNT) {
+                ops = 1;
+                account = new CurrentAccount(number, "Bob", initialBalance, Money.ofMajor(100_000), Money.ofMajor(50));
+            }
+            return (CurrentAccount) account;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Registry {
+        final String[] keys = new String[LOOKUPS];
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < REGISTRY_SIZE; i++) {
+                String number = (i % 2 == 0 ? "SA" : "CA") + (100_000 + i);
+                BankSimulation.openAccount(i % 2 == 0
+                        ? new SavingsAccount(number, "Holder " + i, Money.ofMajor(5000), 25_000)
+                        : new CurrentAccount(number, "Holder " + i, Money.ofMajor(2000), Money.ofMajor(500), Money.ofMajor(50)));
+            }
+            Random random = new Random(42);
+            for (int i = 0; i < LOOKUPS; i++) {
+                int n = random.nextInt(REGISTRY_SIZE);
+                keys[i] = (n % 2 == 0 ? "SA" : "CA") + (100_000 + n);
+            }
+        }
+    }
+
+    // Swallows printStatement's output for the length of a trial.
+    @State(Scope.Benchmark)
+    public static class Sink {
+        PrintStream out;
+
+        @Setup
+        public void setUp() throws IOException {
+            out = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override public void write(int b) { }
+                @Override public void write(byte[] b, int off, int len) { }
+            }, false, "UTF-8"));
+        }
+
+        @TearDown
+        public void tearDown() {
+            System.setOut(out);
+        }
+    }
+
+    @Benchmark
+    public long deposit(PerThread t) {
+        SavingsAccount acc = t.savings();
+        acc.deposit(Money.ofMajor(1));
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public long savingsWithdraw(PerThread t) throws InsufficientFundsException {
+        SavingsAccount acc = t.savings();
+        acc.withdraw(Money.ofMajor(1));
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public long currentWithdraw(PerThread t) throws InsufficientFundsException {
+        CurrentAccount acc = t.current(Money.ofMajor(5000));
+        acc.withdraw(Money.ofMajor(1));
+        return acc.getBalance();
+    }
+
+    // Every withdrawal lands in the overdraft, so each one also charges the fee.
+    @Benchmark
+    public long currentWithdrawOverdraft(PerThread t) throws InsufficientFundsException {
+        CurrentAccount acc = t.current(0);
+        acc.withdraw(Money.ofMajor(1));
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public long applyMonthlyInterest(PerThread t) {
+        SavingsAccount acc = t.savings();
+        acc.applyMonthlyInterest();
+        return acc.getBalance();
+    }
+
+    @Benchmark
+    public String toTableString(PerThread t) {
+        return t.entry.toTableString();
+    }
+
+    @Benchmark
+    public void printStatement(PerThread t, Sink sink) {
+        t.statement.printStatement();
+    }
+
+    @Benchmark
+    public Account registryLookup(PerThread t, Registry registry) {
+        return BankSimulation.findAccount(registry.keys[t.lookup++ & (LOOKUPS - 1)]);
+    }
+}
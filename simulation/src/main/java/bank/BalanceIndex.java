@@ -0,0 +1,156 @@
+/*
+ * BalanceIndex.java
+ * Accounts ordered by balance, kept current as balances change, for top-N
+ * and balance-range queries (largest balances, overdrawn current accounts,
+ * savings accounts close to MIN_BALANCE) without scanning the registry.
+ *
+ * The index is a ConcurrentSkipListSet of immutable (balance, account) keys,
+ * largest balance first: skip lists only step forward in O(1) (a descending
+ * iterator searches again for every element), so both top-N and range
+ * queries are one descent followed by a forward walk over their results.
+ * It listens to every account it holds (see AccountListener): each history
+ * entry that moves the balance inserts the account's new key and then
+ * removes the old one, under the account lock, so updates of one account are
+ * serialized while different accounts update in parallel. The account's
+ * current key is kept on the account (Account.balanceKey); queries skip keys
+ * that are no longer current, so a query never returns an account twice.
+ *
+ * Queries are weakly consistent: they run concurrently with updates, never
+ * block them, and can miss an account that moves while they run. If its new
+ * key lands behind the query's position in the walk, and its old key is
+ * reached after the move, the old key is skipped as no longer current, so
+ * the account is in neither place. An account that is not updated during
+ * the query is always reported correctly. An account can only be in one
+ * BalanceIndex.
+ */
+
+package bank;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+final class BalanceIndex implements AccountListener {
+    private final ConcurrentSkipListSet<Key> byBalance = new ConcurrentSkipListSet<>();
+
+    // Starts tracking acc. Its balance is read under the account lock, and
+    // every later change arrives through entryAdded.
+    void add(Account acc) {
+        acc.lock.lock();
+        try {
+            if (acc.balanceKey != null) return;
+            Key key = new Key(acc.getBalance(), acc);
+            byBalance.add(key);
+            acc.balanceKey = key;
+            acc.addListener(this);
+        } finally {
+            acc.lock.unlock();
+        }
+    }
+
+    void addAll(Collection<Account> accounts) {
+        for (Account acc : accounts) add(acc);
+    }
+
+    // Called with the account lock held. The balance rather than the entry's
+    // balanceAfter, because lock-free accounts may record entries out of
+    // order; the last call for a burst of CASes sees the final balance.
+    @Override
+    public void entryAdded(Account account, int index) {
+        Key old = account.balanceKey;
+        long balance = account.getBalance();
+        if (old.balance == balance) return;
+        Key key = new Key(balance, account);
+        byBalance.add(key);
+        account.balanceKey = key;
+        byBalance.remove(old);
+    }
+
+    // The n accounts with the largest balances, largest first (ties by
+    // account number).
+    List<Account> top(int n) {
+        List<Account> out = new ArrayList<>(Math.min(n, 1024));
+        for (Key k : byBalance) {
+            if (out.size() == n) break;
+            if (k.isCurrent()) out.add(k.account);
+        }
+        return out;
+    }
+
+    // Up to limit accounts of the given kind (Account.class for any) with
+    // min <= balance <= max, largest balance first.
+    List<Account> between(long min, long max, Class<? extends Account> kind, int limit) {
+        List<Account> out = new ArrayList<>(Math.min(limit, 1024));
+        if (min > max) return out;
+        for (Key k : byBalance.subSet(Key.first(max), true, Key.last(min), true)) {
+            if (out.size() == limit) break;
+            if (k.isCurrent() && kind.isInstance(k.account)) out.add(k.account);
+        }
+        return out;
+    }
+
+    // As top, for when no index is kept: scans accounts once, holding the
+    // best n seen so far in a heap.
+    static List<Account> top(Collection<Account> accounts, int n) {
+        return between(accounts, Long.MIN_VALUE, Long.MAX_VALUE, Account.class, n);
+    }
+
+    // As between, by scanning accounts. Each balance is read once into a
+    // Key, so balances changing mid-scan cannot upset the ordering.
+    static List<Account> between(Collection<Account> accounts, long min, long max,
+                                 Class<? extends Account> kind, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        PriorityQueue<Key> best = new PriorityQueue<>(Collections.reverseOrder());
+        for (Account acc : accounts) {
+            long balance = acc.getBalance();
+            if (balance < min || balance > max || !kind.isInstance(acc)) continue;
+            if (best.size() == limit) {
+                Key worst = best.peek();
+                if (balance < worst.balance || balance == worst.balance
+                        && acc.getAccountNumber().compareTo(worst.account.getAccountNumber()) > 0) continue;
+                best.poll();
+            }
+            best.add(new Key(balance, acc));
+        }
+        Key[] keys = best.toArray(new Key[0]);
+        Arrays.sort(keys);
+        List<Account> out = new ArrayList<>(keys.length);
+        for (Key k : keys) out.add(k.account);
+        return out;
+    }
+
+    // An account's balance as of one update. Ordered by balance, largest
+    // first, then account number; the bounds for range queries have no
+    // account and sort before or after every account at their balance.
+    static final class Key implements Comparable<Key> {
+        private static final int BEFORE = -1;
+        private static final int AFTER = 1;
+
+        final long balance;
+        final Account account;
+        private final int bound;
+
+        Key(long balance, Account account) {
+            this(balance, account, 0);
+        }
+
+        private Key(long balance, Account account, int bound) {
+            this.balance = balance;
+            this.account = account;
+            this.bound = bound;
+        }
+
+        static Key first(long balance) { return new Key(balance, null, BEFORE); }
+
+        static Key last(long balance) { return new Key(balance, null, AFTER); }
+
+        boolean isCurrent() { return account.balanceKey == this; }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = Long.compare(o.balance, balance);
+            if (c != 0) return c;
+            if (bound != 0 || o.bound != 0) return Integer.compare(bound, o.bound);
+            return account.getAccountNumber().compareTo(o.account.getAccountNumber());
+        }
+    }
+}
@@ -0,0 +1,1645 @@
+/*
+ * BankBenchmark.java
+ * Throughput benchmarks for the bank simulation. Each benchmark runs a short
+ * warmup on throwaway accounts, then times a fixed number of operations per
+ * thread and checks the resulting balances so a fast-but-wrong run is caught.
+ *
+ * How to build & run, from the repository root:
+ *   mvn -B package
+ *   java -cp simulation/target/bank-simulation.jar bank.BankBenchmark [benchmark] [threads] [opsPerThread]
+ *
+ * These are quick end-to-end runs with their own correctness checks. The
+ * per-operation numbers to judge changes by come from the JMH module in
+ * benchmarks/ (forked JVMs, blackholes, and the same benchmarks run against
+ * the original BankSimulation.java).
+ *
+ * Benchmarks:
+ *   baseline    per-operation throughput on 1 thread and on [threads] threads:
+ *               deposit, each withdraw override, applyMonthlyInterest,
+ *               toTableString, printStatement and registry lookups
+ *   contended   one hot account, locked vs lock-free balance updates
+ *   stress      [threads] threads open 16 shared accounts through the registry
+ *               at once (exactly one open per number may win), then deposit
+ *               and withdraw on them, locked and lock-free; every amount is a
+ *               unique operation id, so the check finds lost updates, missing
+ *               or doubled history entries and torn balanceAfter chains
+ *   transfer    random-pair transfers across 10,000 accounts
+ *   rejection   withdrawals on per-thread savings and current accounts with
+ *               20% and 100% of them refused: a fresh InsufficientFundsException
+ *               with a stack trace per rejection vs. the preallocated
+ *               stackless ones
+ *   results     one thread cycling deposits, withdrawals and transfers over
+ *               64 accounts: the throwing API vs. tryDeposit / tryWithdraw /
+ *               tryTransfer with one reused OperationResult, with no and with
+ *               20% refused withdrawals; reports ops/s and bytes allocated
+ *               per operation (history arrays are pre-grown, so their
+ *               amortized growth is not counted); then both APIs again with
+ *               every entry journaled, acknowledged 64 operations at a time
+ *   clock       cost of one history timestamp on 1 and [threads] threads: the
+ *               old Instant.now() conversion and LocalDateTime.now() vs.
+ *               BankClock.stamp() on the system, cached and simulated clocks;
+ *               stamps must come out strictly increasing on every thread
+ *   money       double vs fixed-point arithmetic for deposits and interest
+ *   journal     durable deposits/s at several group-commit windows, then
+ *               checks that replaying the journal rebuilds every balance
+ *   statement   random 50-entry statement pages read back from a mapped journal
+ *               (third argument is the total entry count; 20M entries is
+ *               about 1.5 GB of journal)
+ *   snapshot    snapshot taken under live deposits, then startup time from
+ *               snapshot + journal suffix vs. full journal replay
+ *               (third argument is the account count)
+ *   monthend    month-end interest over a book of savings accounts: a plain
+ *               loop vs. MonthEnd on pools of 1, 2, 4 ... [threads] workers
+ *               (third argument is the account count)
+ *   accrual     accrued daily interest at month end, incremental InterestAccrual
+ *               vs. rescanning each account's history for the period
+ *               (third argument is the account count; 60 entries each)
+ *   server      BankServer and LoadGenerator in one process over loopback:
+ *               throughput and latency percentiles (second argument is the
+ *               connection count, third the measured seconds)
+ *   pipeline    the server on a journaled registry: request/response against
+ *               pipelines of 16 and 64 requests per connection (second
+ *               argument is the connection count, third the measured seconds)
+ *   render      one statement of [third argument] entries (default 100,000):
+ *               toTableString + println per row vs. StatementFormatter; the
+ *               two outputs must be byte-identical. Reports statements/s,
+ *               rows/s and bytes allocated per statement
+ *   range       one-day statement queries (up to 100 entries) over an
+ *               account with [third argument] entries spread across a year
+ *               (default 2,000,000): binary search vs. scanning from the
+ *               start, with the history all on heap and mostly in the journal
+ *   balanceat   point-in-time balances at random instants over an account
+ *               with [third argument] entries spread across a year (default
+ *               2,000,000): Account.balanceAt vs. scanning the history for the
+ *               last entry before the instant, on heap, in the journal, and
+ *               in the journal after a restart from a snapshot
+ *   sharded     [threads] producers driving deposits and withdrawals on
+ *               10,000 accounts: calling the striped-lock accounts directly
+ *               vs. ShardedEngine with 1, 2, 4 ... shards (up to the core
+ *               count, at least 4); throughput and latency percentiles
+ *               (third argument is the operations per producer)
+ *   http        HttpApi under [threads] concurrent keep-alive clients (default
+ *               1000) mixing deposits, withdrawals and account reads; reports
+ *               throughput and latency percentiles and checks the balances
+ *               (third argument is the measured seconds)
+ *   holders     HolderIndex over [third argument] accounts (default 1,000,000;
+ *               50M needs about 14 GB of heap): build rate, then exact and
+ *               prefix (up to 100 matches) holder lookups vs. scanning the
+ *               registry; both must find the same accounts
+ *   balances    BalanceIndex over [third argument] accounts (default 1,000,000,
+ *               half savings, half current): deposit/withdraw throughput on
+ *               [threads] threads with and without the index, then top 1000,
+ *               overdrawn current accounts and savings within 5% of
+ *               MIN_BALANCE from the index vs. the scan used when the
+ *               registry keeps no index (see -Dbank.balanceIndex)
+ *   history     heap bytes per history entry, columnar vs object-per-entry
+ *               (third argument is the entry count; run with a large -Xmx)
+ */
+
+package bank;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.time.*;
+import java.math.*;
+
+public class BankBenchmark {
+
+    interface Op {
+        void run(int thread, int iteration) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "contended";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        switch (name) {
+            case "baseline": baseline(threads, ops); break;
+            case "contended": contended(threads, ops); break;
+            case "stress": stress(threads, ops); break;
+            case "transfer": transfer(threads, ops); break;
+            case "rejection": rejection(threads, ops); break;
+            case "results": results(args.length > 2 ? ops : 2_000_000); break;
+            case "clock": clock(threads, args.length > 2 ? ops : 5_000_000); break;
+            case "money": money(ops); break;
+            case "journal": journal(threads, args.length > 2 ? ops : 2_000); break;
+            case "statement": statement(threads, args.length > 2 ? ops : 2_000_000); break;
+            case "snapshot": snapshot(threads, args.length > 2 ? ops : 1_000_000); break;
+            case "monthend": monthEnd(threads, args.length > 2 ? ops : 1_000_000); break;
+            case "accrual": accrual(args.length > 2 ? ops : 100_000); break;
+            case "server": server(args.length > 1 ? threads : 1000, args.length > 2 ? ops : 10); break;
+            case "pipeline": pipeline(args.length > 1 ? threads : 16, args.length > 2 ? ops : 5); break;
+            case "render": render(args.length > 2 ? ops : 100_000); break;
+            case "range": range(args.length > 2 ? ops : 2_000_000); break;
+            case "balanceat": balanceAt(args.length > 2 ? ops : 2_000_000); break;
+            case "sharded": sharded(threads, args.length > 2 ? ops : 500_000); break;
+            case "http": http(args.length > 1 ? threads : 1000, args.length > 2 ? ops : 10); break;
+            case "holders": holders(args.length > 2 ? ops : 1_000_000); break;
+            case "balances": balances(threads, args.length > 2 ? ops : 1_000_000); break;
+            case "history": history(args.length > 2 ? ops : 5_000_000); break;
+            default:
+                System.out.println("Unknown benchmark: " + name);
+        }
+    }
+
+    // One line per operation and thread count. Every thread works on its own
+    // accounts, so this is the uncontended cost of each operation; contended
+    // and transfer cover the shared-account cases. The first round of each
+    // thread count is a warmup and is not reported.
+    static void baseline(int threads, int ops) throws Exception {
+        int[] counts = threads == 1 ? new int[] { 1 } : new int[] { 1, threads };
+        for (int n : counts) {
+            for (int round = 0; round < 2; round++) {
+                runBaseline(n, round == 0 ? Math.max(ops / 10, 1) : ops, round == 1);
+            }
+        }
+    }
+
+    private static void runBaseline(int threads, int ops, boolean print) throws Exception {
+        Account[] own = new Account[threads];
+        for (int t = 0; t < threads; t++) own[t] = new CurrentAccount("BENCH-" + t, "Bench", 0, 0, 0);
+        timed("deposit", threads, ops, print, (t, i) -> own[t].deposit(100));
+        for (Account acc : own) check(acc.getBalance() == 100L * ops, "deposit balance of " + acc.getAccountNumber());
+
+        for (int t = 0; t < threads; t++) own[t] = new PlainAccount("BENCH-" + t, "Bench", ops);
+        timed("withdraw Account", threads, ops, print, (t, i) -> own[t].withdraw(1));
+        for (Account acc : own) check(acc.getBalance() == 0, "withdraw balance of " + acc.getAccountNumber());
+
+        for (int t = 0; t < threads; t++) {
+            own[t] = new SavingsAccount("BENCH-" + t, "Bench", SavingsAccount.MIN_BALANCE + ops, Money.parseRate("2.5"));
+        }
+        timed("withdraw SavingsAccount", threads, ops, print, (t, i) -> own[t].withdraw(1));
+        for (Account acc : own) check(acc.getBalance() == SavingsAccount.MIN_BALANCE, "savings balance of " + acc.getAccountNumber());
+
+        // Every withdrawal goes into overdraft, so each one also posts the fee.
+        for (int t = 0; t < threads; t++) own[t] = new CurrentAccount("BENCH-" + t, "Bench", 0, Long.MAX_VALUE / 4, 1);
+        timed("withdraw CurrentAccount", threads, ops, print, (t, i) -> own[t].withdraw(1));
+        for (Account acc : own) check(acc.getBalance() == -2L * ops, "current balance of " + acc.getAccountNumber());
+
+        // Interest goes round-robin over a small book per thread so balances
+        // only compound a few hundred times.
+        int book = 1024;
+        SavingsAccount[][] savings = new SavingsAccount[threads][book];
+        long opened = 0;
+        for (int t = 0; t < threads; t++) {
+            for (int a = 0; a < book; a++) {
+                savings[t][a] = new SavingsAccount("BENCH-" + t + "-" + a, "Bench", Money.ofMajor(2000), Money.parseRate("2.5"));
+                opened += Money.ofMajor(2000);
+            }
+        }
+        LongAdder posted = new LongAdder();
+        timed("applyMonthlyInterest", threads, ops, print, (t, i) -> posted.add(savings[t][i & (book - 1)].applyMonthlyInterest()));
+        long total = 0;
+        for (SavingsAccount[] accs : savings) for (SavingsAccount acc : accs) total += acc.getBalance();
+        check(posted.sum() > 0 && total - opened == posted.sum(), "interest posted " + posted.sum() + " != " + (total - opened));
+
+        int entries = 16;
+        Transaction[] views = new Transaction[threads];
+        for (int t = 0; t < threads; t++) {
+            own[t] = new CurrentAccount("BENCH-" + t, "Bench", 0, 0, 0);
+            for (int e = 1; e < entries; e++) own[t].deposit(100);
+            views[t] = own[t].history.view(0, null);
+        }
+        LongAdder chars = new LongAdder();
+        timed("toTableString", threads, ops, print, (t, i) -> {
+            Account acc = own[t];
+            chars.add(acc.history.view(i & (entries - 1), views[t]).toTableString().length());
+        });
+        check(chars.sum() > 0, "table rows formatted");
+
+        // Statements go to a discarding stream, reusing the 16-entry accounts
+        // from toTableString; the result is reported once stdout is back.
+        int statements = Math.max(ops / entries, 1);
+        PrintStream stdout = System.out;
+        long elapsed;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override public void write(int b) { }
+            @Override public void write(byte[] b, int off, int len) { }
+        }));
+        try {
+            long start = System.nanoTime();
+            execute(threads, statements, (t, i) -> own[t].printStatement());
+            elapsed = System.nanoTime() - start;
+        } finally {
+            System.setOut(stdout);
+        }
+        if (print) report("printStatement", threads, (long) threads * statements, elapsed);
+
+        int size = 100_000;
+        Map<String, Account> registry = new ConcurrentHashMap<>();
+        String[] keys = new String[size];
+        for (int a = 0; a < size; a++) {
+            keys[a] = "REG" + a;
+            registry.put(keys[a], new CurrentAccount(keys[a], "Bench", 0, 0, 0));
+        }
+        LongAdder misses = new LongAdder();
+        timed("registry lookup", threads, ops, print, (t, i) -> {
+            if (registry.get(keys[(int) ((i * 7919L + t) % size)]) == null) misses.increment();
+        });
+        check(misses.sum() == 0, "registry misses " + misses.sum());
+    }
+
+    private static void timed(String name, int threads, int ops, boolean print, Op op) throws Exception {
+        long start = System.nanoTime();
+        execute(threads, ops, op);
+        if (print) report(name, threads, (long) threads * ops, System.nanoTime() - start);
+    }
+
+    // All threads hammer a single account with deposits and withdrawals.
+    static void contended(int threads, int ops) throws Exception {
+        for (boolean lockFree : new boolean[] { false, true }) {
+            String label = lockFree ? "lock-free" : "locked";
+            runContended(threads, ops / 10, lockFree);
+            long start = System.nanoTime();
+            Account acc = runContended(threads, ops, lockFree);
+            long elapsed = System.nanoTime() - start;
+            report("contended " + label, threads, (long) threads * ops, elapsed);
+            // Every thread deposits 2.00 and withdraws 1.00 per pair of operations.
+            long expected = Money.ofMajor(1000) + (long) threads * (ops / 2) * 100;
+            check(acc.getBalance() == expected, label + " balance " + acc.getBalance() + " != " + expected);
+        }
+    }
+
+    private static Account runContended(int threads, int ops, boolean lockFree) throws Exception {
+        final Account acc = new CurrentAccount("BENCH-HOT", "Bench", Money.ofMajor(1000), 0, 0);
+        acc.setLockFree(lockFree);
+        execute(threads, ops, (t, i) -> {
+            if ((i & 1) == 0) acc.deposit(200);
+            else acc.withdraw(100);
+        });
+        return acc;
+    }
+
+    // Operation i of thread t moves id = t * ops + i + 1 minor units on
+    // account (t + i) % STRESS_ACCOUNTS: every fourth one a withdrawal, the
+    // rest deposits. The opening balance covers every withdrawal.
+    static final int STRESS_ACCOUNTS = 16;
+
+    static void stress(int threads, int ops) throws Exception {
+        check((long) threads * ops < Integer.MAX_VALUE, "too many operations for one id per operation");
+        for (boolean lockFree : new boolean[] { false, true }) {
+            String label = lockFree ? "lock-free" : "locked";
+            long initial = Money.ofMajor(10_000_000_000L);
+            Account[] shared = new Account[STRESS_ACCOUNTS];
+            AtomicInteger opened = new AtomicInteger();
+            execute(threads, STRESS_ACCOUNTS, (t, k) -> {
+                Account acc = new CurrentAccount("STRESS-" + label + "-" + k, "Stress", initial, 0, 0);
+                acc.setLockFree(lockFree);
+                if (BankSimulation.openAccount(acc)) {
+                    shared[k] = acc;
+                    opened.incrementAndGet();
+                }
+            });
+            check(opened.get() == STRESS_ACCOUNTS, label + ": " + opened.get() + " opens won for " + STRESS_ACCOUNTS + " numbers");
+            int[] first = new int[STRESS_ACCOUNTS];
+            for (int k = 0; k < STRESS_ACCOUNTS; k++) first[k] = shared[k].history.size();
+
+            long start = System.nanoTime();
+            execute(threads, ops, (t, i) -> {
+                Account acc = shared[(t + i) % STRESS_ACCOUNTS];
+                long id = (long) t * ops + i + 1;
+                if (i % 4 == 3) acc.withdraw(id);
+                else acc.deposit(id);
+            });
+            report("stress " + label, threads, (long) threads * ops, System.nanoTime() - start);
+
+            long[] expected = new long[STRESS_ACCOUNTS];
+            int[] entries = new int[STRESS_ACCOUNTS];
+            Arrays.fill(expected, initial);
+            for (int t = 0; t < threads; t++) {
+                for (int i = 0; i < ops; i++) {
+                    int k = (t + i) % STRESS_ACCOUNTS;
+                    long id = (long) t * ops + i + 1;
+                    expected[k] += i % 4 == 3 ? -id : id;
+                    entries[k]++;
+                }
+            }
+            BitSet seen = new BitSet(threads * ops);
+            for (int k = 0; k < STRESS_ACCOUNTS; k++) {
+                Account acc = shared[k];
+                String name = label + " " + acc.getAccountNumber();
+                check(acc.getBalance() == expected[k], name + " balance " + acc.getBalance() + " != " + expected[k]);
+                TransactionHistory h = acc.history;
+                int n = h.size() - first[k];
+                check(n == entries[k], name + " has " + n + " entries for " + entries[k] + " operations");
+                long[] before = new long[n];
+                long[] after = new long[n];
+                long prev = initial;
+                long prevTime = Long.MIN_VALUE;
+                for (int j = 0; j < n; j++) {
+                    int e = first[k] + j;
+                    long id = h.amountAt(e);
+                    int t = (int) ((id - 1) / ops);
+                    int i = (int) ((id - 1) % ops);
+                    check(id >= 1 && t < threads && (t + i) % STRESS_ACCOUNTS == k, name + " entry " + e + " has foreign amount " + id);
+                    check(!seen.get((int) id - 1), name + " entry " + e + " repeats operation " + id);
+                    seen.set((int) id - 1);
+                    TransactionType type = h.typeAt(e);
+                    check(type == (i % 4 == 3 ? TransactionType.WITHDRAW : TransactionType.DEPOSIT), name + " entry " + e + " has type " + type);
+                    after[j] = h.balanceAt(e);
+                    before[j] = type == TransactionType.DEPOSIT ? after[j] - id : after[j] + id;
+                    // Locked histories are in order: each entry continues from the
+                    // previous one, with a later stamp.
+                    if (!lockFree) {
+                        check(before[j] == prev, name + " entry " + e + " does not follow balance " + prev);
+                        check(h.timeAt(e) > prevTime, name + " entry " + e + " is stamped out of order");
+                        prev = after[j];
+                        prevTime = h.timeAt(e);
+                    }
+                }
+                // In any order, the balances before the entries are the opening
+                // balance and every balance after one except the final balance.
+                long[] links = after.clone();
+                for (int j = 0; j < n; j++) {
+                    if (links[j] == expected[k]) {
+                        links[j] = initial;
+                        break;
+                    }
+                }
+                Arrays.sort(links);
+                Arrays.sort(before);
+                check(Arrays.equals(links, before), name + " balanceAfter values do not form one chain");
+            }
+            check(seen.cardinality() == threads * ops, label + ": " + seen.cardinality() + " entries for " + threads * ops + " operations");
+        }
+    }
+
+    // Random-pair transfers, including opposing pairs, across a pool of accounts.
+    // Rejected transfers are expected; the total across all accounts must not move.
+    static void transfer(int threads, int ops) throws Exception {
+        runTransfers(threads, ops / 10, 10_000);
+        long start = System.nanoTime();
+        Account[] pool = runTransfers(threads, ops, 10_000);
+        long elapsed = System.nanoTime() - start;
+        report("transfer random-pair", threads, (long) threads * ops, elapsed);
+        long total = 0;
+        for (Account acc : pool) total += acc.getBalance();
+        check(total == Money.ofMajor(100) * pool.length, "money created or destroyed: " + total);
+    }
+
+    private static Account[] runTransfers(int threads, int ops, int accounts) throws Exception {
+        final Account[] pool = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            pool[i] = new CurrentAccount("BENCH-" + i, "Bench", Money.ofMajor(100), 0, 0);
+        }
+        execute(threads, ops, (t, i) -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            int a = rnd.nextInt(accounts);
+            int b = rnd.nextInt(accounts - 1);
+            if (b >= a) b++;
+            try {
+                Account.transfer(pool[a], pool[b], 100);
+            } catch (InsufficientFundsException e) {
+                // account drained by earlier transfers; keep going
+            }
+        });
+        return pool;
+    }
+
+    // Each thread withdraws 1.00 from its own accounts, and every fifth (or
+    // every) withdrawal asks for more than the account can give. The first
+    // round of each case is a warmup.
+    static void rejection(int threads, int ops) throws Exception {
+        boolean saved = InsufficientFundsException.stackTraces;
+        try {
+            for (boolean stackTraces : new boolean[] { true, false }) {
+                InsufficientFundsException.stackTraces = stackTraces;
+                String mode = stackTraces ? "stack traces" : "stackless";
+                for (int every : new int[] { 5, 1 }) {
+                    for (int round = 0; round < 2; round++) {
+                        runRejections(threads, round == 0 ? Math.max(ops / 10, 1) : ops, every,
+                                round == 1 ? "rejection " + (100 / every) + "% " + mode : null);
+                    }
+                }
+            }
+        } finally {
+            InsufficientFundsException.stackTraces = saved;
+        }
+    }
+
+    private static void runRejections(int threads, int ops, int every, String name) throws Exception {
+        Account[] savings = new Account[threads];
+        Account[] current = new Account[threads];
+        for (int t = 0; t < threads; t++) {
+            savings[t] = new SavingsAccount("BENCH-S" + t, "Bench", SavingsAccount.MIN_BALANCE + 100L * ops, Money.parseRate("2.5"));
+            current[t] = new CurrentAccount("BENCH-C" + t, "Bench", 100L * ops, 0, 0);
+        }
+        LongAdder rejected = new LongAdder();
+        LongAdder limits = new LongAdder();
+        long start = System.nanoTime();
+        execute(threads, ops, (t, i) -> {
+            Account acc = (i & 1) == 0 ? savings[t] : current[t];
+            try {
+                acc.withdraw(i % every == 0 ? Long.MAX_VALUE / 4 : 100);
+            } catch (InsufficientFundsException e) {
+                rejected.increment();
+                if (e.getReason() == (acc == savings[t] ? RejectionReason.MIN_BALANCE : RejectionReason.OVERDRAFT_LIMIT)) {
+                    limits.increment();
+                }
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        long expected = (long) threads * ((ops + every - 1) / every);
+        check(rejected.sum() == expected && limits.sum() == expected, "rejected " + rejected.sum() + " != " + expected);
+        long left = 0;
+        for (int t = 0; t < threads; t++) left += savings[t].getBalance() - SavingsAccount.MIN_BALANCE + current[t].getBalance();
+        check(left == (long) threads * 100 * (ops + expected / threads), "balances after rejections: " + left);
+        if (name != null) report(name, threads, (long) threads * ops, elapsed);
+    }
+
+    static void results(int ops) throws Exception {
+        for (int every : new int[] { 0, 5 }) {
+            for (boolean throwing : new boolean[] { true, false }) {
+                results(ops, every, throwing, false);
+            }
+        }
+        // Journaling waits for a disk commit, so these runs are shorter.
+        for (boolean throwing : new boolean[] { true, false }) {
+            results(Math.max(ops / 10, 3), 0, throwing, true);
+        }
+    }
+
+    // Journaled runs acknowledge RESULTS_BATCH operations at a time, as a
+    // ShardedEngine shard does, so they are not one disk commit per operation.
+    private static final int RESULTS_BATCH = 64;
+
+    private static void results(int ops, int every, boolean throwing, boolean journaled) throws Exception {
+        String name = "results " + (throwing ? "throwing" : "OperationResult") + (every == 0 ? "" : " 20% refused")
+                + (journaled ? " journaled" : "");
+        Path dir = journaled ? Files.createTempDirectory("bench-journal") : null;
+        Journal journal = journaled ? Journal.open(dir, 0, new ConcurrentHashMap<>()) : null;
+        try {
+            Account[] pool = new Account[64];
+            for (int a = 0; a < pool.length; a++) {
+                pool[a] = new CurrentAccount("BENCH-" + a, "Bench", Money.ofMajor(1_000_000), 0, 0);
+                if (journal != null) journal.accountOpened(pool[a]);
+            }
+            OperationResult result = new OperationResult();
+            long withdrawals = (ops + 1) / 3;
+            long expected = every == 0 ? 0 : (withdrawals + every - 1) / every;
+            // The first round is a warmup that also grows every history to
+            // the size the measured round needs; clear() keeps the arrays. A
+            // journaled history is not cleared (its indexes are in the
+            // journal): it stays bounded by trimming instead.
+            for (int round = 0; round < 2; round++) {
+                if (round == 1 && journal == null) {
+                    for (Account acc : pool) {
+                        acc.lock.lock();
+                        try {
+                            acc.history.clear();
+                        } finally {
+                            acc.lock.unlock();
+                        }
+                    }
+                }
+                long start = System.nanoTime();
+                long allocated = allocatedBytes();
+                long refused = 0;
+                int batch = journal == null ? ops : RESULTS_BATCH;
+                for (int from = 0; from < ops; from += batch) {
+                    int to = Math.min(from + batch, ops);
+                    if (journal != null) Account.beginAcknowledgementBatch();
+                    try {
+                        refused += throwing ? runThrowing(pool, from, to, every) : runResults(pool, from, to, every, result);
+                    } finally {
+                        if (journal != null) Account.endAcknowledgementBatch();
+                    }
+                }
+                allocated = allocatedBytes() - allocated;
+                long elapsed = System.nanoTime() - start;
+                check(refused == expected, name + " refused " + refused + " != " + expected);
+                if (round == 1) {
+                    System.out.println(String.format("%-40s %12.0f ops/s %8.1f bytes/op",
+                            name, ops / (elapsed / 1e9), (double) allocated / ops));
+                }
+            }
+            long total = 0;
+            for (Account acc : pool) total += acc.getBalance();
+            // Two rounds of deposits and successful withdrawals of 1.00;
+            // transfers move money without changing the total.
+            long deposits = (ops + 2) / 3;
+            check(total == Money.ofMajor(1_000_000) * pool.length + 2 * 100 * (deposits - (withdrawals - expected)),
+                    name + " total balance " + total);
+        } finally {
+            if (journal != null) {
+                journal.close();
+                deleteTree(dir);
+            }
+        }
+    }
+
+    // Operations [from, to) of a run cycling deposit, withdraw, transfer over
+    // pool; every every-th withdrawal (none if 0) asks for more than the
+    // account holds. Returns the number of refusals.
+    private static long runThrowing(Account[] pool, int from, int to, int every) {
+        long refused = 0;
+        for (int i = from; i < to; i++) {
+            Account acc = pool[i & (pool.length - 1)];
+            try {
+                switch (i % 3) {
+                    case 0: acc.deposit(100); break;
+                    case 1: acc.withdraw(every != 0 && (i / 3) % every == 0 ? Long.MAX_VALUE / 4 : 100); break;
+                    default: Account.transfer(acc, pool[(i + 1) & (pool.length - 1)], 100);
+                }
+            } catch (InsufficientFundsException e) {
+                refused++;
+            }
+        }
+        return refused;
+    }
+
+    private static long runResults(Account[] pool, int from, int to, int every, OperationResult result) {
+        long refused = 0;
+        for (int i = from; i < to; i++) {
+            Account acc = pool[i & (pool.length - 1)];
+            switch (i % 3) {
+                case 0: acc.tryDeposit(100, result); break;
+                case 1: acc.tryWithdraw(every != 0 && (i / 3) % every == 0 ? Long.MAX_VALUE / 4 : 100, result); break;
+                default: Account.tryTransfer(acc, pool[(i + 1) & (pool.length - 1)], 100, result);
+            }
+            if (result.status() == OperationResult.Status.REJECTED) refused++;
+        }
+        return refused;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static void clock(int threads, int ops) throws Exception {
+        BankClock saved = BankClock.current();
+        BankClock cached = new BankClock.Cached(1);
+        int[] counts = threads == 1 ? new int[] { 1 } : new int[] { 1, threads };
+        try {
+            for (int n : counts) {
+                long[] sink = new long[n * 16];
+                for (int round = 0; round < 2; round++) {
+                    int reps = round == 0 ? Math.max(ops / 10, 1) : ops;
+                    boolean print = round == 1;
+                    timed("clock Instant.now", n, reps, print, (t, i) -> sink[t * 16] += BankClock.toEpochNanos(Instant.now()));
+                    timed("clock LocalDateTime.now", n, reps, print, (t, i) -> sink[t * 16] += LocalDateTime.now().getNano());
+                    BankClock.use(new BankClock.SystemClock());
+                    stamps("clock stamp system", n, reps, print);
+                    BankClock.use(cached);
+                    stamps("clock stamp cached", n, reps, print);
+                    BankClock.use(new BankClock.Simulated(0));
+                    stamps("clock stamp simulated", n, reps, print);
+                }
+                check(sink[0] != 0, "clock reads");
+            }
+        } finally {
+            BankClock.use(saved);
+        }
+    }
+
+    private static void stamps(String name, int threads, int ops, boolean print) throws Exception {
+        long[] last = new long[threads * 16];
+        LongAdder disorder = new LongAdder();
+        timed(name, threads, ops, print, (t, i) -> {
+            long stamp = BankClock.stamp();
+            if (stamp <= last[t * 16]) disorder.increment();
+            last[t * 16] = stamp;
+        });
+        check(disorder.sum() == 0, name + ": " + disorder.sum() + " stamps not increasing");
+    }
+
+    // Deposit-and-interest arithmetic over a book of balances, once with the old
+    // double code path and once with Money's long minor units. Reports ns per
+    // account per round.
+    static void money(int ops) {
+        int accounts = 100_000;
+        int rounds = Math.max(ops / accounts, 10);
+        long rate = Money.parseRate("2.5");
+        double doubleRate = (2.5 / 100.0) / 12.0;
+        double[] doubles = new double[accounts];
+        long[] longs = new long[accounts];
+        for (int warm = 0; warm < 2; warm++) {
+            Arrays.fill(doubles, 1000.10);
+            Arrays.fill(longs, Money.parse("1000.10"));
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < accounts; i++) {
+                    double b = doubles[i] + 0.10;
+                    doubles[i] = b + Math.round(b * doubleRate * 100.0) / 100.0;
+                }
+            }
+            long doubleNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < accounts; i++) {
+                    long b = longs[i] + 10;
+                    longs[i] = b + Money.monthlyInterest(b, rate, RoundingMode.HALF_EVEN);
+                }
+            }
+            long longNanos = System.nanoTime() - start;
+            if (warm == 1) {
+                long ops2 = (long) rounds * accounts;
+                System.out.println(String.format("%-32s %8.2f ns/op", "money double", (double) doubleNanos / ops2));
+                System.out.println(String.format("%-32s %8.2f ns/op", "money fixed-point", (double) longNanos / ops2));
+            }
+        }
+    }
+
+    // Each thread deposits into its own journaled account; every deposit waits
+    // for its group commit, so throughput is bounded by how many deposits share
+    // each fsync.
+    static void journal(int threads, int ops) throws Exception {
+        for (long window : new long[] { 0, 50, 200, 1000 }) {
+            Path dir = Files.createTempDirectory("bench-journal");
+            try {
+                Map<String, Account> registry = new ConcurrentHashMap<>();
+                Journal journal = Journal.open(dir, window, registry);
+                Account[] pool = new Account[threads];
+                for (int t = 0; t < threads; t++) {
+                    pool[t] = new CurrentAccount("BENCH-" + t, "Bench", 0, 0, 0);
+                    registry.put(pool[t].getAccountNumber(), pool[t]);
+                    journal.accountOpened(pool[t]);
+                }
+                long start = System.nanoTime();
+                execute(threads, ops, (t, i) -> pool[t].deposit(100));
+                long elapsed = System.nanoTime() - start;
+                journal.close();
+                report("journal window=" + window + "us", threads, (long) threads * ops, elapsed);
+
+                Map<String, Account> recovered = new ConcurrentHashMap<>();
+                Journal.open(dir, 0, recovered).close();
+                for (Account acc : pool) {
+                    Account copy = recovered.get(acc.getAccountNumber());
+                    check(copy != null && copy.getBalance() == acc.getBalance(), "recovered balance of " + acc.getAccountNumber());
+                }
+            } finally {
+                deleteTree(dir);
+            }
+        }
+    }
+
+    // Fills a journal with entries spread over 1,000 accounts that keep only 16
+    // entries on the heap, then reads random pages of history from the mapped
+    // segments. Writes skip the durability wait (credit() does not acknowledge)
+    // so that building a multi-GB journal does not take minutes.
+    static void statement(int threads, int entries) throws Exception {
+        int accounts = 1_000;
+        int perAccount = Math.max(entries / accounts, 64);
+        int page = 50;
+        Path dir = Files.createTempDirectory("bench-journal");
+        try {
+            Map<String, Account> registry = new ConcurrentHashMap<>();
+            Journal journal = Journal.open(dir, 0, 256 << 20, 16, registry);
+            Account[] pool = new Account[accounts];
+            for (int a = 0; a < accounts; a++) {
+                pool[a] = new CurrentAccount("BENCH-" + a, "Bench", 0, 0, 0);
+                registry.put(pool[a].getAccountNumber(), pool[a]);
+                journal.accountOpened(pool[a]);
+            }
+            long start = System.nanoTime();
+            execute(threads, perAccount * accounts / threads, (t, i) ->
+                    pool[(i * threads + t) % accounts].credit(100, TransactionType.DEPOSIT, "Deposit"));
+            report("statement fill", threads, (long) perAccount * accounts, System.nanoTime() - start);
+
+            int reads = 200_000 / threads;
+            execute(threads, reads / 10, (t, i) -> readPage(pool, page));
+            start = System.nanoTime();
+            execute(threads, reads, (t, i) -> readPage(pool, page));
+            report("statement page read", threads, (long) reads * threads, System.nanoTime() - start);
+            journal.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Each month posts one INTEREST entry per account; every run is checked by
+    // comparing the total returned with the change in the book's balance.
+    static void monthEnd(int threads, int accounts) throws Exception {
+        ConcurrentHashMap<String, Account> book = new ConcurrentHashMap<>();
+        long rate = Money.parseRate("2.5");
+        for (int a = 0; a < accounts; a++) {
+            String number = "BENCH-" + a;
+            book.put(number, new SavingsAccount(number, "Bench", Money.ofMajor(1000) + a, rate));
+        }
+        for (int month = 0; month < 2; month++) {
+            long before = bookBalance(book);
+            long start = System.nanoTime();
+            long total = 0;
+            for (Account acc : book.values()) total += ((SavingsAccount) acc).applyMonthlyInterest();
+            long elapsed = System.nanoTime() - start;
+            check(bookBalance(book) - before == total, "loop interest " + total);
+            if (month == 1) report("monthend loop", 1, accounts, elapsed);
+        }
+        for (int workers = 1; ; workers = Math.min(workers * 2, threads)) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                for (int month = 0; month < 2; month++) {
+                    long before = bookBalance(book);
+                    long start = System.nanoTime();
+                    long total = MonthEnd.postInterest(book, pool, null);
+                    long elapsed = System.nanoTime() - start;
+                    check(bookBalance(book) - before == total, "month-end interest " + total);
+                    if (month == 1) report("monthend fork-join", workers, accounts, elapsed);
+                }
+            } finally {
+                pool.shutdown();
+            }
+            if (workers == threads) break;
+        }
+    }
+
+    // Accounts get 60 entries spread over the last 30 days (timestamps are set
+    // through restoreEntry, which also feeds the accrual). The history scan
+    // must arrive at the same interest for every account.
+    static void accrual(int accounts) {
+        int entries = 60;
+        int days = 30;
+        long today = EpochDays.today();
+        ZoneId zone = ZoneId.systemDefault();
+        long rate = Money.parseRate("2.5");
+        long dayNanos = 86_400_000_000_000L;
+        SavingsAccount[] book = new SavingsAccount[accounts];
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int a = 0; a < accounts; a++) {
+            SavingsAccount acc = new SavingsAccount("BENCH-" + a, "Bench", 0, rate, new TransactionHistory(entries));
+            long balance = Money.ofMajor(5000) + rnd.nextInt(1_000_000);
+            for (int e = 0; e < entries; e++) {
+                LocalDate date = LocalDate.ofEpochDay(today - days + (long) e * days / entries);
+                long nanos = date.atStartOfDay(zone).toEpochSecond() * 1_000_000_000L + (e & 1) * (dayNanos / 2) + a;
+                long amount = e == 0 ? balance : rnd.nextInt(10_000);
+                TransactionType type = e == 0 ? TransactionType.OPEN
+                        : (e & 1) == 0 ? TransactionType.DEPOSIT : TransactionType.WITHDRAW;
+                balance = type.applyTo(balance, amount);
+                acc.restoreEntry(nanos, type, amount, balance, type == TransactionType.OPEN ? "Account opened" : "Bench", 0);
+            }
+            book[a] = acc;
+        }
+        long[] scanned = new long[accounts];
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int a = 0; a < accounts; a++) scanned[a] = scanAccrued(book[a], today);
+            long scanNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            long total = 0;
+            for (int a = 0; a < accounts; a++) {
+                long accrued = book[a].getAccruedInterest();
+                check(accrued == scanned[a], "accrued interest of " + a + ": " + accrued + " != " + scanned[a]);
+                total += accrued;
+            }
+            long accrualNanos = System.nanoTime() - start;
+            if (round == 2) {
+                report("accrual history scan", 1, accounts, scanNanos);
+                report("accrual incremental", 1, accounts, accrualNanos);
+                check(total > 0, "no interest accrued");
+            }
+        }
+        long start = System.nanoTime();
+        long posted = 0;
+        for (SavingsAccount acc : book) posted += acc.postAccruedInterest();
+        report("accrual post", 1, accounts, System.nanoTime() - start);
+        long expected = 0;
+        for (long s : scanned) expected += s;
+        check(posted == expected, "posted " + posted + " != " + expected);
+        for (SavingsAccount acc : book) check(acc.getAccruedInterest() == 0, "accrual not reset for " + acc.getAccountNumber());
+    }
+
+    // The straightforward approach: walk the account's history back to the
+    // last interest posting, then forward, carrying each end-of-day balance.
+    private static long scanAccrued(SavingsAccount acc, long today) {
+        TransactionHistory h = acc.history;
+        int from = h.size() - 1;
+        while (from > h.firstRetained() && h.typeAt(from) != TransactionType.INTEREST
+                && h.typeAt(from) != TransactionType.OPEN) {
+            from--;
+        }
+        Transaction t = h.view(from, null);
+        long day = t.getTimestamp().toLocalDate().toEpochDay();
+        long balance = t.getBalanceAfter();
+        long balanceDays = 0;
+        for (int i = from + 1; i < h.size(); i++) {
+            t = h.view(i, t);
+            long d = t.getTimestamp().toLocalDate().toEpochDay();
+            if (d > day) {
+                balanceDays += balance * (d - day);
+                day = d;
+            }
+            balance = t.getBalanceAfter();
+        }
+        if (today > day) balanceDays += balance * (today - day);
+        return Money.multiply(balanceDays, acc.getAnnualInterestRate(), 100 * Money.RATE_PER_PERCENT * 365, RoundingMode.HALF_EVEN);
+    }
+
+    // In-memory accounts (no journal), so this measures the network path and
+    // the operations themselves rather than fsync.
+    static void server(int connections, int seconds) throws Exception {
+        try (BankServer server = new BankServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                BankServer.DEFAULT_WORKERS)) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port());
+            LoadGenerator.run(address, connections, 1, 2, seconds, 10_000).print("tcp request/response", connections);
+        }
+    }
+
+    // Journaled, so every response waits for a commit. Pipelined requests that
+    // arrive together are executed as one batch and share that commit.
+    static void pipeline(int connections, int seconds) throws Exception {
+        Path dir = Files.createTempDirectory("bench-journal");
+        try {
+            BankSimulation.openJournal(dir, 0);
+            try (BankServer server = new BankServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    BankServer.DEFAULT_WORKERS)) {
+                InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port());
+                for (int depth : new int[] { 1, 16, 64 }) {
+                    LoadGenerator.run(address, connections, depth, 1, seconds, 1_000)
+                            .print(depth == 1 ? "tcp request/response" : "tcp pipeline=" + depth, connections);
+                }
+            } finally {
+                BankSimulation.closeJournal();
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Entries are stamped across a year (so the zone's transitions are
+    // crossed) with whole-minute, millisecond, microsecond and nanosecond
+    // times, to exercise every shape LocalDateTime.toString() can take. Output
+    // goes to a stream set up like System.out: a small buffer, autoflush.
+    static void render(int entries) throws Exception {
+        CurrentAccount acc = new CurrentAccount("RENDER-1", "Zo\u00eb Bench", Money.ofMajor(100), Money.ofMajor(500), Money.ofMajor(5));
+        Random random = new Random(42);
+        long nanos = LocalDateTime.of(2025, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toEpochSecond() * 1_000_000_000L;
+        long step = 365L * 86_400 * 1_000_000_000L / entries;
+        long balance = acc.getBalance();
+        TransactionType[] types = TransactionType.values();
+        for (int e = 1; e < entries; e++) {
+            long t = nanos + e * step;
+            switch (e % 4) {
+                case 0: t -= Math.floorMod(t, 60_000_000_000L); break;
+                case 1: t -= Math.floorMod(t, 1_000_000L); break;
+                case 2: t -= Math.floorMod(t, 1_000L); break;
+                default: break;
+            }
+            TransactionType type = types[1 + random.nextInt(types.length - 1)];
+            long amount = random.nextInt(1_000_000);
+            balance = type.applyTo(balance, amount);
+            long ref = type == TransactionType.XFER_IN || type == TransactionType.XFER_OUT ? e : 0;
+            acc.addTransaction(t, type, amount, balance, type == TransactionType.FEE ? "Overdraft fee applied" : "Entry " + (e % 100), ref);
+        }
+
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        legacyStatement(acc, new PrintStream(legacy, true, "UTF-8"));
+        acc.printStatement(new PrintStream(rendered, true, "UTF-8"));
+        check(Arrays.equals(legacy.toByteArray(), rendered.toByteArray()), "StatementFormatter output differs from toTableString");
+
+        PrintStream sink = new PrintStream(new BufferedOutputStream(new OutputStream() {
+            @Override public void write(int b) { }
+            @Override public void write(byte[] b, int off, int len) { }
+        }, 128), true);
+        int reps = Math.max(2_000_000 / entries, 3);
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            renderTimed("statement toTableString/println", entries, reps, print, () -> legacyStatement(acc, sink));
+            renderTimed("statement StatementFormatter", entries, reps, print, () -> acc.printStatement(sink));
+        }
+    }
+
+    // printStatement as it was before StatementFormatter.
+    private static void legacyStatement(Account acc, PrintStream out) {
+        long current = acc.getBalance();
+        TransactionHistory entries = acc.entries(0, Integer.MAX_VALUE);
+        out.println("\n--- Statement for " + acc.getAccountNumber() + " (" + acc.getAccountHolder() + ") ---");
+        out.println("Current balance: " + Money.format(current));
+        out.println("Date & Time           | Type     | Amount     | BalanceAfter | Description");
+        out.println("-----------------------+----------+------------+--------------+----------------");
+        Transaction t = null;
+        for (int i = entries.firstRetained(); i < entries.size(); i++) {
+            t = entries.view(i, t);
+            out.println(t.toTableString());
+        }
+        out.println("---------------------------------------- End of statement ----------------------------------------");
+    }
+
+    private static void renderTimed(String name, int entries, int reps, boolean print, Runnable statement) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long allocated = mx.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        for (int r = 0; r < reps; r++) statement.run();
+        long elapsed = System.nanoTime() - start;
+        allocated = mx.getThreadAllocatedBytes(id) - allocated;
+        if (print) {
+            System.out.println(String.format("%-32s entries=%-8d %10.1f statements/s %12.0f rows/s %12d bytes/statement",
+                    name, entries, reps / (elapsed / 1e9), (double) reps * entries / (elapsed / 1e9), allocated / reps));
+        }
+    }
+
+    static void range(int entries) throws Exception {
+        CurrentAccount heap = new CurrentAccount("RANGE-HEAP", "Bench", 0, 0, 0);
+        // After the OPEN entry, which is stamped now: histories are in time order.
+        long first = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toEpochSecond() * 1_000_000_000L;
+        long step = 365L * 86_400 * 1_000_000_000L / entries;
+        fillRange(heap, entries, first, step);
+        rangeQueries("range heap", heap, first);
+
+        Path dir = Files.createTempDirectory("bench-journal");
+        try {
+            Map<String, Account> registry = new ConcurrentHashMap<>();
+            Journal journal = Journal.open(dir, 0, 256 << 20, 1024, registry);
+            CurrentAccount archived = new CurrentAccount("RANGE-JOURNAL", "Bench", 0, 0, 0);
+            registry.put(archived.getAccountNumber(), archived);
+            journal.accountOpened(archived);
+            fillRange(archived, entries, first, step);
+            check(archived.history.firstRetained() > entries - 4096, "history archived");
+            rangeQueries("range journal", archived, first);
+            journal.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void fillRange(Account acc, int entries, long first, long step) {
+        acc.lock.lock();
+        try {
+            for (int e = 1; e < entries; e++) {
+                acc.addTransaction(first + e * step, TransactionType.DEPOSIT, 100, 100L * e, "Deposit", 0);
+            }
+        } finally {
+            acc.lock.unlock();
+        }
+    }
+
+    // Both ways must return the same entries for every query.
+    private static void rangeQueries(String name, Account acc, long first) {
+        long day = 86_400L * 1_000_000_000L;
+        int limit = 100;
+        Random random = new Random(7);
+        int queries = 20_000;
+        long[] days = new long[queries];
+        for (int q = 0; q < queries; q++) days[q] = first + random.nextInt(365) * day;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            long rows = 0;
+            for (int q = 0; q < queries; q++) rows += acc.entriesBetween(days[q], days[q] + day, limit).retained();
+            long elapsed = System.nanoTime() - start;
+            check(rows == (long) queries * limit, "binary search returned " + rows + " rows");
+            if (round == 1) rangeReport(name + " binary search", queries, elapsed);
+        }
+        int scans = 20;
+        long start = System.nanoTime();
+        for (int q = 0; q < scans; q++) {
+            TransactionHistory scanned = scanRange(acc, days[q], days[q] + day, limit);
+            TransactionHistory found = acc.entriesBetween(days[q], days[q] + day, limit);
+            check(scanned.firstRetained() == found.firstRetained() && scanned.retained() == found.retained(),
+                    "scan and binary search disagree on day " + q);
+        }
+        rangeReport(name + " linear scan", scans, System.nanoTime() - start);
+    }
+
+    // The way to answer a date range without the index: read the history
+    // from the start, a block at a time, until the range begins.
+    private static TransactionHistory scanRange(Account acc, long fromNanos, long toNanos, int limit) {
+        int size = acc.getTransactionCount();
+        int block = 4096;
+        for (int i = 0; i < size; i += block) {
+            TransactionHistory h = acc.entries(i, i + block);
+            for (int j = h.firstRetained(); j < h.size(); j++) {
+                if (h.timeAt(j) < fromNanos) continue;
+                int end = j;
+                TransactionHistory rest = acc.entries(j, j + limit);
+                while (end < rest.size() && rest.timeAt(end) < toNanos) end++;
+                return acc.entries(j, end);
+            }
+        }
+        return TransactionHistory.startingAt(size, 1);
+    }
+
+    private static void rangeReport(String name, int queries, long elapsedNanos) {
+        System.out.println(String.format("%-32s queries=%-8d %12.0f queries/s %10.1f us/query",
+                name, queries, queries / (elapsedNanos / 1e9), elapsedNanos / 1e3 / queries));
+    }
+
+    static void balanceAt(int entries) throws Exception {
+        CurrentAccount heap = new CurrentAccount("ASOF-HEAP", "Bench", 0, 0, 0);
+        long first = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toEpochSecond() * 1_000_000_000L;
+        long step = 365L * 86_400 * 1_000_000_000L / entries;
+        fillRange(heap, entries, first, step);
+        balanceQueries("balanceAt heap", heap, first, step);
+
+        Path dir = Files.createTempDirectory("bench-journal");
+        try {
+            Map<String, Account> registry = new ConcurrentHashMap<>();
+            Journal journal = Journal.open(dir, 0, 256 << 20, 1024, registry);
+            CurrentAccount archived = new CurrentAccount("ASOF-JOURNAL", "Bench", 0, 0, 0);
+            registry.put(archived.getAccountNumber(), archived);
+            journal.accountOpened(archived);
+            fillRange(archived, entries, first, step);
+            check(archived.history.firstRetained() > entries - 4096, "history archived");
+            balanceQueries("balanceAt journal", archived, first, step);
+            journal.snapshot();
+            journal.close();
+
+            // Restored checkpoints only have positions until first use.
+            registry = new ConcurrentHashMap<>();
+            journal = Journal.open(dir, 0, 256 << 20, 1024, registry);
+            balanceQueries("balanceAt restored", registry.get("ASOF-JOURNAL"), first, step);
+            journal.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Entry e of fillRange is stamped first + e * step with balance 100 * e,
+    // so every answer is known in advance; the scan must agree too.
+    private static void balanceQueries(String name, Account acc, long first, long step) {
+        int entries = acc.getTransactionCount();
+        Random random = new Random(11);
+        int queries = 100_000;
+        long[] at = new long[queries];
+        for (int q = 0; q < queries; q++) at[q] = first + step + (long) (random.nextDouble() * (entries - 1) * step);
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                long expected = 100L * ((at[q] - first) / step);
+                long balance = acc.balanceAt(at[q]);
+                if (balance != expected) check(false, name + " at " + at[q] + ": " + balance + " != " + expected);
+            }
+            if (round == 1) rangeReport(name + " checkpoints", queries, System.nanoTime() - start);
+        }
+        int scans = 20;
+        long start = System.nanoTime();
+        for (int q = 0; q < scans; q++) {
+            check(scanBalance(acc, at[q]) == acc.balanceAt(at[q]), "scan and balanceAt disagree at " + at[q]);
+        }
+        rangeReport(name + " linear scan", scans, System.nanoTime() - start);
+    }
+
+    // The way to answer a point-in-time balance without the index: read the
+    // history from the start, a block at a time, up to the last entry at or
+    // before the instant.
+    private static long scanBalance(Account acc, long epochNanos) {
+        int size = acc.getTransactionCount();
+        int block = 4096;
+        long balance = Account.NO_BALANCE;
+        for (int i = 0; i < size; i += block) {
+            TransactionHistory h = acc.entries(i, i + block);
+            for (int j = h.firstRetained(); j < h.size(); j++) {
+                if (h.timeAt(j) > epochNanos) return balance;
+                balance = h.balanceAt(j);
+            }
+        }
+        return balance;
+    }
+
+    private static final String[] FIRST_NAMES = {
+        "Alice", "Bob", "Carol", "Dave", "Erin", "Frank", "Grace", "Heidi", "Ivan", "Judy", "Mallory", "Niaj",
+        "Olivia", "Peggy", "Rupert", "Sybil", "Trent", "Uma", "Victor", "Walter" };
+    private static final String[] LAST_NAMES = {
+        "Smith", "Jones", "Brown", "Taylor", "Wilson", "Davies", "Evans", "Thomas", "Johnson", "Roberts",
+        "Walker", "Wright", "Robinson", "Thompson", "White", "Hughes", "Edwards", "Green", "Hall", "Wood" };
+
+    // Holder of account a: 400 first/last name pairs, each with a numeric
+    // suffix shared by four accounts, so exact lookups find several accounts
+    // and a first-name-plus-surname prefix matches many holders.
+    private static String holderName(int a) {
+        int pair = a % (FIRST_NAMES.length * LAST_NAMES.length);
+        return FIRST_NAMES[pair % FIRST_NAMES.length] + " " + LAST_NAMES[pair / FIRST_NAMES.length] + " " + (a / 1600);
+    }
+
+    static void holders(int accounts) {
+        Map<String, Account> registry = new ConcurrentHashMap<>();
+        HolderIndex index = new HolderIndex();
+        long start = System.nanoTime();
+        for (int a = 0; a < accounts; a++) {
+            // Restored-style accounts with no heap history keep 50M affordable.
+            Account acc = new CurrentAccount("H" + a, holderName(a), 0, 0, 0, new TransactionHistory(0));
+            registry.put(acc.getAccountNumber(), acc);
+            index.add(acc);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-32s accounts=%-10d %12.0f accounts/s (registry + index)",
+                "holders build", accounts, accounts / (elapsed / 1e9)));
+
+        Random random = new Random(5);
+        int queries = 100_000;
+        String[] exact = new String[queries];
+        String[] prefixes = new String[queries];
+        for (int q = 0; q < queries; q++) {
+            int a = random.nextInt(accounts);
+            exact[q] = holderName(a).toLowerCase();
+            String name = holderName(a);
+            prefixes[q] = name.substring(0, name.lastIndexOf(' ') + 2);
+        }
+        for (int round = 0; round < 2; round++) {
+            long found = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) found += index.find(exact[q]).size();
+            elapsed = System.nanoTime() - start;
+            check(found >= queries, "exact lookups found " + found);
+            if (round == 1) rangeReport("holders exact index", queries, elapsed);
+            found = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) found += index.withPrefix(prefixes[q], 100).size();
+            elapsed = System.nanoTime() - start;
+            check(found >= queries, "prefix lookups found " + found);
+            if (round == 1) rangeReport("holders prefix index", queries, elapsed);
+        }
+        int scans = Math.max(1, Math.min(20, 20_000_000 / accounts));
+        start = System.nanoTime();
+        for (int q = 0; q < scans; q++) {
+            List<Account> scanned = new ArrayList<>();
+            for (Account acc : registry.values()) if (acc.getAccountHolder().equalsIgnoreCase(exact[q])) scanned.add(acc);
+            check(new HashSet<>(scanned).equals(new HashSet<>(index.find(exact[q]))), "scan and index disagree on " + exact[q]);
+        }
+        rangeReport("holders exact scan", scans, System.nanoTime() - start);
+        start = System.nanoTime();
+        for (int q = 0; q < scans; q++) {
+            int matches = 0;
+            for (Account acc : registry.values()) {
+                if (acc.getAccountHolder().regionMatches(true, 0, prefixes[q], 0, prefixes[q].length())) matches++;
+            }
+            check(index.withPrefix(prefixes[q], matches).size() == matches, "scan and index disagree on " + prefixes[q]);
+        }
+        rangeReport("holders prefix scan", scans, System.nanoTime() - start);
+    }
+
+    static void balances(int threads, int accounts) throws Exception {
+        int ops = 1_000_000;
+        for (boolean indexed : new boolean[] { false, true }) {
+            for (int round = 0; round < 2; round++) {
+                Account[] book = balanceBook(accounts);
+                BalanceIndex index = new BalanceIndex();
+                if (indexed) for (Account acc : book) index.add(acc);
+                long start = System.nanoTime();
+                execute(threads, round == 0 ? ops / 10 : ops, (t, i) -> {
+                    Account acc = book[(int) ((i * 7919L + t * 104_729L) % book.length)];
+                    if ((i & 1) == 0) acc.deposit((i >> 1) % 300 + 1);
+                    else acc.tryWithdraw((i >> 1) % 300 + 1, RESULT.get());
+                });
+                if (round == 1) report("balances updates " + (indexed ? "indexed" : "no index"), threads, (long) threads * ops, System.nanoTime() - start);
+            }
+        }
+
+        Account[] book = balanceBook(accounts);
+        BalanceIndex index = new BalanceIndex();
+        for (Account acc : book) index.add(acc);
+        execute(threads, ops, (t, i) -> {
+            Account acc = book[(int) ((i * 7919L + t * 104_729L) % book.length)];
+            if ((i & 1) == 0) acc.deposit((i >> 1) % 300 + 1);
+            else acc.tryWithdraw((i >> 1) % 300 + 1, RESULT.get());
+        });
+        long near = SavingsAccount.MIN_BALANCE + SavingsAccount.MIN_BALANCE / 20;
+        for (int round = 0; round < 2; round++) {
+            int queries = round == 0 ? 200 : 1000;
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++) index.top(1000);
+            if (round == 1) rangeReport("balances top 1000 index", queries, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) index.between(Long.MIN_VALUE, -1, CurrentAccount.class, Integer.MAX_VALUE);
+            if (round == 1) rangeReport("balances overdrawn index", queries, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) index.between(SavingsAccount.MIN_BALANCE, near, SavingsAccount.class, Integer.MAX_VALUE);
+            if (round == 1) rangeReport("balances near minimum index", queries, System.nanoTime() - start);
+        }
+
+        List<Account> registry = Arrays.asList(book);
+        for (int round = 0; round < 2; round++) {
+            int scans = round == 0 ? 3 : 5;
+            long start = System.nanoTime();
+            for (int q = 0; q < scans; q++) {
+                check(BalanceIndex.top(registry, 1000).equals(index.top(1000)), "top 1000 differs from scan");
+            }
+            if (round == 1) rangeReport("balances top 1000 scan", scans, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int q = 0; q < scans; q++) {
+                check(BalanceIndex.between(registry, Long.MIN_VALUE, -1, CurrentAccount.class, Integer.MAX_VALUE)
+                        .equals(index.between(Long.MIN_VALUE, -1, CurrentAccount.class, Integer.MAX_VALUE)),
+                        "overdrawn accounts differ from scan");
+            }
+            if (round == 1) rangeReport("balances overdrawn scan", scans, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int q = 0; q < scans; q++) {
+                check(BalanceIndex.between(registry, SavingsAccount.MIN_BALANCE, near, SavingsAccount.class, Integer.MAX_VALUE)
+                        .equals(index.between(SavingsAccount.MIN_BALANCE, near, SavingsAccount.class, Integer.MAX_VALUE)),
+                        "near-minimum accounts differ from scan");
+            }
+            if (round == 1) rangeReport("balances near minimum scan", scans, System.nanoTime() - start);
+        }
+    }
+
+    private static final ThreadLocal<OperationResult> RESULT = ThreadLocal.withInitial(OperationResult::new);
+
+    // Savings accounts between 1,000 and 51,000 and current accounts between
+    // -200 and 10,000 with a 500 overdraft: about 0.1% of the savings are
+    // within 5% of MIN_BALANCE and 2% of the current accounts overdrawn.
+    private static Account[] balanceBook(int accounts) {
+        Account[] book = new Account[accounts];
+        Random random = new Random(3);
+        for (int a = 0; a < accounts; a++) {
+            book[a] = (a & 1) == 0
+                    ? new SavingsAccount("B" + a, "Bench", SavingsAccount.MIN_BALANCE + random.nextInt(5_000_000), 25_000, new TransactionHistory(0))
+                    : new CurrentAccount("B" + a, "Bench", random.nextInt(1_020_000) - 20_000, Money.ofMajor(500), 0, new TransactionHistory(0));
+        }
+        return book;
+    }
+
+    // In-memory accounts. Each producer alternates deposits of 1.00 and
+    // withdrawals of 0.50 on random accounts; through the engine it keeps at
+    // most SHARD_WINDOW commands in flight, so latency is time in the ring and
+    // on the shard rather than time spent waiting for a full ring.
+    static final int SHARD_WINDOW = 256;
+
+    static void sharded(int producers, int ops) throws Exception {
+        int accounts = 10_000;
+        String[] keys = new String[accounts];
+        for (int a = 0; a < accounts; a++) {
+            keys[a] = "SHARD-" + a;
+            BankSimulation.openAccount(new CurrentAccount(keys[a], "Load", Money.ofMajor(100), 0, 0));
+        }
+        for (int round = 0; round < 2; round++) {
+            runDirect(producers, round == 0 ? ops / 10 : ops, keys, round == 1);
+        }
+        int maxShards = Math.max(4, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+        for (int shards = 1; shards <= maxShards; shards *= 2) {
+            try (ShardedEngine engine = new ShardedEngine(shards, ShardedEngine.DEFAULT_RING_SIZE)) {
+                for (int round = 0; round < 2; round++) {
+                    runSharded(engine, producers, round == 0 ? ops / 10 : ops, keys, round == 1);
+                }
+            }
+        }
+    }
+
+    private static void runDirect(int producers, int ops, String[] keys, boolean print) throws Exception {
+        long[][] latencies = new long[producers][ops];
+        LongAdder deposited = new LongAdder();
+        LongAdder withdrawn = new LongAdder();
+        long before = shardBookBalance(keys);
+        long start = System.nanoTime();
+        execute(producers, ops, (t, i) -> {
+            Account acc = BankSimulation.findAccount(keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+            long sentAt = System.nanoTime();
+            if (i % 2 == 0) {
+                acc.deposit(100);
+                deposited.increment();
+            } else {
+                try {
+                    acc.withdraw(50);
+                    withdrawn.increment();
+                } catch (InsufficientFundsException e) {
+                    // counted as neither
+                }
+            }
+            latencies[t][i] = System.nanoTime() - sentAt;
+        });
+        long elapsed = System.nanoTime() - start;
+        check(shardBookBalance(keys) - before == deposited.sum() * 100 - withdrawn.sum() * 50, "direct balances");
+        if (print) reportLatency("direct (striped locks)", producers, latencies, elapsed);
+    }
+
+    private static void runSharded(ShardedEngine engine, int producers, int ops, String[] keys, boolean print)
+            throws Exception {
+        ShardProducer[] ps = new ShardProducer[producers];
+        for (int t = 0; t < producers; t++) ps[t] = new ShardProducer(ops);
+        long before = shardBookBalance(keys);
+        long start = System.nanoTime();
+        execute(producers, 1, (t, ignored) -> ps[t].drive(engine, keys));
+        long elapsed = System.nanoTime() - start;
+        long[][] latencies = new long[producers][];
+        long deposited = 0;
+        long withdrawn = 0;
+        for (int t = 0; t < producers; t++) {
+            latencies[t] = ps[t].latency;
+            deposited += ps[t].deposited.get();
+            withdrawn += ps[t].withdrawn.get();
+            check(ps[t].failed.get() == 0, "sharded commands failed");
+        }
+        check(shardBookBalance(keys) - before == deposited * 100 - withdrawn * 50, "sharded balances");
+        if (print) reportLatency("sharded shards=" + engine.shards(), producers, latencies, elapsed);
+    }
+
+    // Completions arrive on the shard threads, so the counters are atomic;
+    // each latency slot is written once, by the shard that ran the command.
+    private static final class ShardProducer implements ShardedEngine.Completion {
+        final long[] sentAt;
+        final long[] latency;
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong deposited = new AtomicLong();
+        final AtomicLong withdrawn = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        ShardProducer(int ops) {
+            sentAt = new long[ops];
+            latency = new long[ops];
+        }
+
+        void drive(ShardedEngine engine, String[] keys) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < sentAt.length; i++) {
+                while (i - done.get() >= SHARD_WINDOW) Thread.yield();
+                String key = keys[random.nextInt(keys.length)];
+                sentAt[i] = System.nanoTime();
+                if (i % 2 == 0) engine.deposit(key, 100, i, this);
+                else engine.withdraw(key, 50, i, this);
+            }
+            while (done.get() < sentAt.length) Thread.yield();
+        }
+
+        @Override
+        public void completed(long tag, byte status, long balance) {
+            int i = (int) tag;
+            latency[i] = System.nanoTime() - sentAt[i];
+            if (status == BankProtocol.OK) (i % 2 == 0 ? deposited : withdrawn).incrementAndGet();
+            else if (status != BankProtocol.INSUFFICIENT_FUNDS) failed.incrementAndGet();
+            done.incrementAndGet();
+        }
+    }
+
+    private static long shardBookBalance(String[] keys) {
+        long total = 0;
+        for (String k : keys) total += BankSimulation.findAccount(k).getBalance();
+        return total;
+    }
+
+    private static void reportLatency(String name, int threads, long[][] latencies, long elapsedNanos) {
+        int n = 0;
+        for (long[] l : latencies) n += l.length;
+        long[] all = new long[n];
+        n = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, n, l.length);
+            n += l.length;
+        }
+        Arrays.sort(all);
+        System.out.println(String.format("%-32s threads=%-3d ops=%-10d %12.0f ops/s  p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                name, threads, n, n / (elapsedNanos / 1e9), all[n / 2] / 1e3, all[(int) (n * 0.99)] / 1e3,
+                all[(int) (n * 0.999)] / 1e3, all[n - 1] / 1e3));
+    }
+
+    // In-memory accounts, one client thread per connection. A quarter of the
+    // requests are GET /accounts/{n}, the rest alternate deposits of 1.00 and
+    // withdrawals of 0.50 on current accounts without overdraft.
+    static void http(int clients, int seconds) throws Exception {
+        // Keep every client connection alive on both ends, and never let the
+        // client resend a POST whose keep-alive connection went stale.
+        System.setProperty("http.maxConnections", Integer.toString(clients));
+        System.setProperty("sun.net.httpserver.maxIdleConnections", Integer.toString(clients));
+        System.setProperty("sun.net.http.retryPost", "false");
+        int accounts = 1_000;
+        try (HttpApi api = new HttpApi(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            String base = "http://127.0.0.1:" + api.port() + "/accounts";
+            for (int a = 0; a < accounts; a++) {
+                int status = httpCall("POST", base, "{\"type\":\"current\",\"number\":\"HTTP-" + a
+                        + "\",\"holder\":\"Load\",\"initialBalance\":0,\"overdraftLimit\":0,\"overdraftFee\":0}");
+                check(status == 201 || status == 409, "create returned " + status);
+            }
+            long before = httpBookBalance(accounts);
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(2);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+            LoadGenerator.Result[] results = new LoadGenerator.Result[clients];
+            AtomicLong deposits = new AtomicLong();
+            AtomicLong withdrawals = new AtomicLong();
+            List<Thread> threads = new ArrayList<>();
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            for (int t = 0; t < clients; t++) {
+                LoadGenerator.Result r = results[t] = new LoadGenerator.Result();
+                r.latencies = new long[1024];
+                Thread thread = new Thread(() -> {
+                    try {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; System.nanoTime() < end; i++) {
+                            String url = base + "/HTTP-" + random.nextInt(accounts);
+                            long sentAt = System.nanoTime();
+                            int status;
+                            if (i % 4 == 3) {
+                                status = httpCall("GET", url, null);
+                            } else if (i % 2 == 0) {
+                                status = httpCall("POST", url + "/deposit", "{\"amount\":1.00}");
+                                if (status == 200) deposits.incrementAndGet();
+                            } else {
+                                status = httpCall("POST", url + "/withdraw", "{\"amount\":0.50}");
+                                if (status == 200) withdrawals.incrementAndGet();
+                            }
+                            long now = System.nanoTime();
+                            if (sentAt >= measureFrom && now <= end) {
+                                r.ops++;
+                                r.record(now - sentAt);
+                                if (status == 422) r.rejected++;
+                                else if (status != 200) r.failed++;
+                            }
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, "http-client");
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) thread.join();
+            if (failure.get() != null) throw failure.get();
+            LoadGenerator.Result total = new LoadGenerator.Result();
+            for (LoadGenerator.Result r : results) total.add(r);
+            total.seconds = seconds;
+            total.print(api.usesVirtualThreads() ? "http (virtual threads)" : "http (thread pool)", clients);
+            long moved = httpBookBalance(accounts) - before;
+            check(moved == deposits.get() * 100 - withdrawals.get() * 50,
+                    "balances moved by " + moved + " after " + deposits + " deposits, " + withdrawals + " withdrawals");
+        }
+    }
+
+    private static long httpBookBalance(int accounts) {
+        long total = 0;
+        for (int a = 0; a < accounts; a++) total += BankSimulation.findAccount("HTTP-" + a).getBalance();
+        return total;
+    }
+
+    // One request on a pooled keep-alive connection; reads the whole response
+    // so the connection can be reused, and returns the status code.
+    private static int httpCall(String method, String url, String body) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setRequestMethod(method);
+        if (body != null) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            c.setDoOutput(true);
+            c.setFixedLengthStreamingMode(bytes.length);
+            c.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(bytes);
+            }
+        }
+        int status = c.getResponseCode();
+        try (InputStream in = status >= 400 ? c.getErrorStream() : c.getInputStream()) {
+            if (in != null) {
+                byte[] skip = new byte[512];
+                while (in.read(skip) >= 0) { }
+            }
+        }
+        return status;
+    }
+
+    private static long bookBalance(Map<String, Account> book) {
+        long total = 0;
+        for (Account acc : book.values()) total += acc.getBalance();
+        return total;
+    }
+
+    // Opens accounts, snapshots them while deposits keep running, then compares
+    // startup from the snapshot plus journal suffix against a full replay, and
+    // checks both against the live balances.
+    static void snapshot(int threads, int accounts) throws Exception {
+        Path dir = Files.createTempDirectory("bench-journal");
+        try {
+            Map<String, Account> registry = new ConcurrentHashMap<>();
+            Journal journal = Journal.open(dir, 0, 256 << 20, 4, registry);
+            Account[] pool = new Account[accounts];
+            for (int a = 0; a < accounts; a++) {
+                pool[a] = new SavingsAccount("BENCH-" + a, "Bench", Money.ofMajor(2000), Money.parseRate("2.5"));
+                registry.put(pool[a].getAccountNumber(), pool[a]);
+                journal.accountOpened(pool[a]);
+            }
+            int depositsPerThread = Math.max(accounts / threads, 1);
+            long start = System.nanoTime();
+            Future<Path> snap = journal.snapshotAsync();
+            execute(threads, depositsPerThread, (t, i) ->
+                    pool[(i * threads + t) % accounts].credit(100, TransactionType.DEPOSIT, "Deposit"));
+            snap.get();
+            System.out.println(String.format("%-32s accounts=%-10d %8.0f ms (deposits kept running)",
+                    "snapshot write", accounts, (System.nanoTime() - start) / 1e6));
+            journal.close();
+
+            start = System.nanoTime();
+            Map<String, Account> fromSnapshot = new ConcurrentHashMap<>();
+            Journal.open(dir, 0, 256 << 20, 4, fromSnapshot).close();
+            System.out.println(String.format("%-32s accounts=%-10d %8.0f ms",
+                    "startup snapshot+suffix", accounts, (System.nanoTime() - start) / 1e6));
+
+            try (DirectoryStream<Path> snaps = Files.newDirectoryStream(dir, "*.snap")) {
+                for (Path f : snaps) Files.delete(f);
+            }
+            start = System.nanoTime();
+            Map<String, Account> fromJournal = new ConcurrentHashMap<>();
+            Journal.open(dir, 0, 256 << 20, 4, fromJournal).close();
+            System.out.println(String.format("%-32s accounts=%-10d %8.0f ms",
+                    "startup full replay", accounts, (System.nanoTime() - start) / 1e6));
+
+            for (Account acc : pool) {
+                long live = acc.getBalance();
+                check(fromSnapshot.get(acc.getAccountNumber()).getBalance() == live, "snapshot balance of " + acc.getAccountNumber());
+                check(fromJournal.get(acc.getAccountNumber()).getBalance() == live, "replayed balance of " + acc.getAccountNumber());
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void readPage(Account[] pool, int page) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        Account acc = pool[rnd.nextInt(pool.length)];
+        int archived = acc.history.firstRetained();
+        if (archived < page) return;
+        int from = rnd.nextInt(archived - page + 1);
+        TransactionHistory entries = acc.archive.read(from, from + page);
+        check(entries.size() == from + page, "archived page size of " + acc.getAccountNumber());
+        for (int i = Math.max(from, 1); i < from + page; i++) {
+            check(entries.balanceAt(i) == 100L * i, "archived entry " + i + " of " + acc.getAccountNumber());
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) Files.delete(f);
+        }
+        Files.delete(dir);
+    }
+
+    // Retained heap per entry for the columnar store against the layout it replaced:
+    // one object holding a LocalDateTime, two Strings and two doubles per entry.
+    static void history(int entries) {
+        String[] descs = { "Deposit", "Withdrawal", "Monthly interest applied", "Overdraft fee applied" };
+        TransactionType[] types = { TransactionType.DEPOSIT, TransactionType.WITHDRAW, TransactionType.INTEREST, TransactionType.FEE };
+
+        long before = usedHeap();
+        List<LegacyTransaction> legacy = new ArrayList<>();
+        LocalDateTime base = LocalDateTime.now();
+        for (int i = 0; i < entries; i++) {
+            legacy.add(new LegacyTransaction(base.plusNanos(i * 1000L), types[i & 3].name(), i, i * 2, descs[i & 3]));
+        }
+        long legacyBytes = usedHeap() - before;
+        check(legacy.size() == entries, "legacy list size");
+        legacy = null;
+
+        before = usedHeap();
+        TransactionHistory columnar = new TransactionHistory();
+        long nanos = System.currentTimeMillis() * 1_000_000L;
+        for (int i = 0; i < entries; i++) {
+            columnar.append(nanos + i * 1000L, types[i & 3], i, i * 2L, descs[i & 3], 0);
+        }
+        long columnarBytes = usedHeap() - before;
+        check(columnar.size() == entries, "columnar size");
+
+        System.out.println(String.format("%-32s entries=%-10d %8.1f bytes/entry", "history object-per-entry", entries, (double) legacyBytes / entries));
+        System.out.println(String.format("%-32s entries=%-10d %8.1f bytes/entry", "history columnar", entries, (double) columnarBytes / entries));
+        System.out.println(String.format("%-32s %.1fx", "history reduction", (double) legacyBytes / columnarBytes));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Concrete account with the base class's withdraw().
+    private static final class PlainAccount extends Account {
+        PlainAccount(String accountNumber, String accountHolder, long initialBalance) {
+            super(accountNumber, accountHolder, initialBalance);
+        }
+    }
+
+    // The pre-columnar history entry, kept only as the memory baseline.
+    private static final class LegacyTransaction {
+        final LocalDateTime timestamp;
+        final String type;
+        final double amount;
+        final double balanceAfter;
+        final String description;
+
+        LegacyTransaction(LocalDateTime timestamp, String type, double amount, double balanceAfter, String description) {
+            this.timestamp = timestamp;
+            this.type = type;
+            this.amount = amount;
+            this.balanceAfter = balanceAfter;
+            this.description = description;
+        }
+    }
+
+    // Runs op ops times on each of the given number of threads, all released together.
+    static void execute(int threads, int ops, Op op) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < ops; i++) op.run(thread, i);
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static void report(String name, int threads, long ops, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format("%-32s threads=%-3d ops=%-10d %12.0f ops/s", name, threads, ops, ops / seconds));
+    }
+
+    static void check(boolean ok, String message) {
+        if (!ok) throw new IllegalStateException("Benchmark check failed: " + message);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * BankClock.java
+ * Time source for history timestamps.
+ *
+ * Every history entry is stamped with BankClock.stamp(): the clock's current
+ * epoch nanoseconds, but always at least one nanosecond after the previous
+ * stamp handed out in this process. Stamps are therefore unique and strictly
+ * increasing across the whole bank, so they double as a bank-wide sequence
+ * number: ordering the entries of all accounts by time is a total order, and
+ * a wall clock that steps backwards cannot put a history out of time order
+ * (the statement and balance binary searches rely on that order).
+ *
+ * The clock is picked with -Dbank.clock=<name>:
+ *   cached     (default) a daemon thread stores the time in a volatile every
+ *              -Dbank.clockMillis=<n> (default 1), so reading it is a plain
+ *              load instead of a trip through Instant and the system clock
+ *   system     Instant.now() on every read, full resolution
+ *   simulated  deterministic: starts at -Dbank.clockStart=<ISO date-time>
+ *              (default 2026-01-01T00:00, system zone) and only moves when
+ *              told to, so replaying the same batch file produces the same
+ *              timestamps every time (see BatchRunner's clock command)
+ */
+
+package bank;
+
+import java.time.*;
+import java.util.concurrent.atomic.*;
+
+abstract class BankClock {
+    private static final AtomicLong LAST_STAMP = new AtomicLong(Long.MIN_VALUE);
+    private static volatile BankClock clock = fromProperties();
+
+    // Current time in epoch nanoseconds (UTC).
+    abstract long epochNanos();
+
+    static BankClock current() { return clock; }
+
+    // Replaces the clock, e.g. with a Simulated one for a replay. Stamps keep
+    // increasing even if the new clock is behind the old one.
+    static void use(BankClock newClock) { clock = newClock; }
+
+    // Timestamp for a new history entry; see the file comment.
+    static long stamp() {
+        long now = clock.epochNanos();
+        while (true) {
+            long last = LAST_STAMP.get();
+            long next = now > last ? now : last + 1;
+            if (LAST_STAMP.compareAndSet(last, next)) return next;
+        }
+    }
+
+    // Makes sure new stamps come after one restored from the journal.
+    static void observe(long stamp) { LAST_STAMP.accumulateAndGet(stamp, Math::max); }
+
+    static long toEpochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static BankClock fromProperties() {
+        String name = System.getProperty("bank.clock", "cached");
+        switch (name) {
+            case "system":
+                return new SystemClock();
+            case "cached":
+                return new Cached(Long.getLong("bank.clockMillis", 1));
+            case "simulated":
+                String start = System.getProperty("bank.clockStart", "2026-01-01T00:00");
+                return new Simulated(toEpochNanos(LocalDateTime.parse(start).atZone(ZoneId.systemDefault()).toInstant()));
+            default:
+                throw new IllegalArgumentException("Unknown clock: " + name + " (use cached, system or simulated)");
+        }
+    }
+
+    static final class SystemClock extends BankClock {
+        @Override
+        long epochNanos() { return toEpochNanos(Instant.now()); }
+    }
+
+    // Reads are as old as the refresh interval (plus any scheduling delay of
+    // the refresh thread); stamp() keeps them unique.
+    static final class Cached extends BankClock {
+        private volatile long now = toEpochNanos(Instant.now());
+
+        Cached(long refreshMillis) {
+            if (refreshMillis < 1) throw new IllegalArgumentException("Clock refresh must be at least 1 ms");
+            Thread refresher = new Thread(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(refreshMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    now = toEpochNanos(Instant.now());
+                }
+            }, "bank-clock");
+            refresher.setDaemon(true);
+            refresher.start();
+        }
+
+        @Override
+        long epochNanos() { return now; }
+    }
+
+    static final class Simulated extends BankClock {
+        private final AtomicLong now;
+
+        Simulated(long startNanos) {
+            now = new AtomicLong(startNanos);
+        }
+
+        @Override
+        long epochNanos() { return now.get(); }
+
+        void set(long epochNanos) { now.set(epochNanos); }
+
+        void advance(long nanos) { now.addAndGet(nanos); }
+    }
+}
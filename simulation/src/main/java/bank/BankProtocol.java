@@ -0,0 +1,83 @@
+/*
+ * BankProtocol.java
+ * Binary framed protocol spoken by BankServer and LoadGenerator.
+ *
+ * Every message is a frame: [int length][body], length counting the body
+ * only. All numbers are big-endian, amounts are minor units, and strings are
+ * a short length followed by UTF-8 bytes (as in the journal).
+ *
+ * Request body:   byte op, int requestId, op arguments
+ *   CREATE        byte kind ('S' or 'C'), number, holder, long initialBalance,
+ *                 long rateOrOverdraftLimit, long overdraftFee (0 for savings)
+ *   DEPOSIT       number, long amount
+ *   WITHDRAW      number, long amount
+ *   TRANSFER      fromNumber, toNumber, long amount
+ *   BALANCE       number
+ *   STATEMENT     number, int limit (most recent entries; capped at
+ *                 MAX_STATEMENT_ENTRIES)
+ *
+ * Response body:  byte status, int requestId, then
+ *   OK            long balance (of the source account for TRANSFER); for
+ *                 STATEMENT also int historySize, int first, int count and
+ *                 count x (long epochNanos, byte type, long amount,
+ *                 long balanceAfter, long reference, description)
+ *   anything else string message
+ *
+ * A client may pipeline: write any number of requests without waiting for
+ * their responses. Responses on a connection come back in the order the
+ * requests were sent; the request id is echoed so a client can match them
+ * anyway. A response is only sent once the operation is durable, and
+ * requests that arrive together share one journal commit (see BankServer).
+ */
+
+package bank;
+
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+
+final class BankProtocol {
+    static final byte CREATE = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte TRANSFER = 4;
+    static final byte BALANCE = 5;
+    static final byte STATEMENT = 6;
+
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte INSUFFICIENT_FUNDS = 2;
+    static final byte INVALID = 3;
+    static final byte EXISTS = 4;
+    static final byte UNKNOWN_OP = 5;
+    static final byte FAILED = 6;
+
+    static final int MAX_FRAME = 1 << 20;
+    static final int MAX_STATEMENT_ENTRIES = 4096;
+    // Largest string the protocol carries, in UTF-8 bytes.
+    static final int MAX_STRING = 1024;
+
+    private BankProtocol() { }
+
+    static void putString(ByteBuffer buf, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING) throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+        buf.putShort((short) bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer buf) {
+        int n = buf.getShort() & 0xFFFF;
+        if (n > MAX_STRING || n > buf.remaining()) throw new IllegalArgumentException("Malformed string");
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+        buf.position(buf.position() + n);
+        return s;
+    }
+
+    // Returns buf if it has room for needed more bytes, or a larger copy.
+    static ByteBuffer ensure(ByteBuffer buf, int needed) {
+        if (buf.remaining() >= needed) return buf;
+        int capacity = Math.max(buf.capacity() * 2, buf.position() + needed);
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buf.flip();
+        return bigger.put(buf);
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * BankServer.java
+ * Non-blocking TCP front end for the account operations, speaking the framed
+ * binary protocol in BankProtocol.
+ *
+ * One selector thread owns every socket: it accepts connections, reads
+ * request bytes and writes response bytes, and never runs an operation
+ * itself. Operations can block (every journaled operation waits for its
+ * group commit), so once a connection has at least one complete request
+ * frame, the selector stops reading from it and hands it to a worker pool.
+ * The worker executes all complete frames in order, appends the responses to
+ * the connection's output buffer and passes the connection back. The
+ * selector writes the responses and resumes reading.
+ *
+ * Clients may pipeline: send many requests without waiting for responses.
+ * Everything that has arrived by the time a worker picks the connection up
+ * runs as one batch. Inside a batch, operations do not wait for their own
+ * journal commit; the worker waits once, after the last operation, before
+ * any of the batch's responses are released (Account acknowledgement batch).
+ * A batch therefore costs one group-commit wait and one socket write,
+ * however many requests it holds.
+ *
+ * At most one worker owns a connection at a time, so a connection's requests
+ * run in order and its buffers need no locking: ownership moves with the
+ * executor hand-off and the completion queue. Buffers start small and only
+ * grow for large frames, so thousands of idle connections cost little.
+ *
+ * Operations go through the same registry as the console (BankSimulation).
+ */
+
+package bank;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+final class BankServer implements Closeable {
+    static final int DEFAULT_WORKERS = Integer.getInteger("bank.serverWorkers", 64);
+    private static final int INITIAL_BUFFER = 4096;
+    private static final int BACKLOG = 16384;
+    private static final int MAX_MESSAGE = 200;
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+    private final Thread loop;
+    private volatile boolean closed;
+
+    BankServer(InetSocketAddress address, int workerThreads) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address, BACKLOG);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "bank-server-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        loop = new Thread(this::run, "bank-server-selector");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    int port() {
+        return server.socket().getLocalPort();
+    }
+
+    // Blocks until the server has been closed.
+    void awaitClose() throws InterruptedException {
+        loop.join();
+    }
+
+    // Stops accepting and reading, then waits for batches the workers are
+    // already running, so the journal is not closed under them.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Connection done;
+                while ((done = completed.poll()) != null) finished(done);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection conn = (Connection) key.attachment();
+                        if (key.isReadable()) read(conn);
+                        if (key.isValid() && key.isWritable()) write(conn);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Server stopped: " + e);
+        } finally {
+            for (SelectionKey key : selector.keys()) closeQuietly(key.channel());
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+        }
+    }
+
+    private void read(Connection conn) {
+        int n;
+        try {
+            n = conn.channel.read(conn.in);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            drop(conn);
+            return;
+        }
+        dispatchIfReady(conn);
+    }
+
+    // Hands the connection to a worker if a whole frame has arrived, growing
+    // the input buffer when a frame will not fit.
+    private void dispatchIfReady(Connection conn) {
+        ByteBuffer in = conn.in;
+        if (in.position() < 4) return;
+        int length = in.getInt(0);
+        if (length <= 0 || length > BankProtocol.MAX_FRAME) {
+            drop(conn);
+            return;
+        }
+        if (in.position() < 4 + length) {
+            if (in.capacity() < 4 + length) conn.in = BankProtocol.ensure(in, 4 + length - in.position());
+            return;
+        }
+        conn.key.interestOps(0);
+        workers.execute(() -> {
+            try {
+                conn.process();
+            } catch (RuntimeException e) {
+                conn.broken = true;
+            } finally {
+                completed.add(conn);
+                selector.wakeup();
+            }
+        });
+    }
+
+    // Back on the selector thread once a worker has executed a batch.
+    private void finished(Connection conn) {
+        if (!conn.key.isValid()) return;
+        if (conn.broken) {
+            drop(conn);
+            return;
+        }
+        conn.out.flip();
+        write(conn);
+    }
+
+    private void write(Connection conn) {
+        try {
+            conn.channel.write(conn.out);
+        } catch (IOException e) {
+            drop(conn);
+            return;
+        }
+        if (conn.out.hasRemaining()) {
+            conn.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        conn.out.clear();
+        conn.key.interestOps(SelectionKey.OP_READ);
+        dispatchIfReady(conn);
+    }
+
+    private void drop(Connection conn) {
+        conn.key.cancel();
+        closeQuietly(conn.channel);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // nothing useful to do on close
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        // Owned by the selector thread, or by one worker while processing.
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+        ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER);
+        boolean broken;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Executes every complete frame in the input buffer, in order, as one
+        // acknowledgement batch.
+        void process() {
+            Account.beginAcknowledgementBatch();
+            try {
+                executeFrames();
+            } finally {
+                Account.endAcknowledgementBatch();
+            }
+        }
+
+        private void executeFrames() {
+            ByteBuffer buf = in;
+            buf.flip();
+            while (buf.remaining() >= 4) {
+                int length = buf.getInt(buf.position());
+                if (length <= 0 || length > BankProtocol.MAX_FRAME) {
+                    broken = true;
+                    break;
+                }
+                if (buf.remaining() < 4 + length) break;
+                int end = buf.position() + 4 + length;
+                int limit = buf.limit();
+                buf.position(buf.position() + 4).limit(end);
+                handle(buf);
+                buf.limit(limit).position(end);
+            }
+            buf.compact();
+        }
+
+        private void handle(ByteBuffer req) {
+            byte op = req.get();
+            int id = req.getInt();
+            out = BankProtocol.ensure(out, 4 + 1 + 4 + 8);
+            int frame = out.position();
+            out.putInt(0).put(BankProtocol.OK).putInt(id);
+            byte status;
+            String message;
+            try {
+                execute(op, req);
+                status = BankProtocol.OK;
+                message = null;
+            } catch (AccountExists e) {
+                status = BankProtocol.EXISTS;
+                message = e.getMessage();
+            } catch (AccountNotFound e) {
+                status = BankProtocol.NOT_FOUND;
+                message = e.getMessage();
+            } catch (InsufficientFundsException e) {
+                status = BankProtocol.INSUFFICIENT_FUNDS;
+                message = e.getMessage();
+            } catch (UnsupportedOperationException e) {
+                status = BankProtocol.UNKNOWN_OP;
+                message = e.getMessage();
+            } catch (BufferUnderflowException e) {
+                status = BankProtocol.INVALID;
+                message = "Malformed request";
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                status = BankProtocol.INVALID;
+                message = e.getMessage();
+            } catch (RuntimeException e) {
+                status = BankProtocol.FAILED;
+                message = String.valueOf(e);
+            }
+            if (status != BankProtocol.OK) {
+                out.position(frame);
+                String text = message == null ? "" : message;
+                if (text.length() > MAX_MESSAGE) text = text.substring(0, MAX_MESSAGE);
+                out = BankProtocol.ensure(out, 4 + 1 + 4 + 2 + 3 * text.length());
+                out.putInt(0).put(status).putInt(id);
+                BankProtocol.putString(out, text);
+            }
+            out.putInt(frame, out.position() - frame - 4);
+        }
+
+        // Runs one operation and appends its OK payload to out.
+        private void execute(byte op, ByteBuffer req) throws InsufficientFundsException {
+            switch (op) {
+                case BankProtocol.CREATE: {
+                    byte kind = req.get();
+                    String number = BankProtocol.getString(req);
+                    String holder = BankProtocol.getString(req);
+                    long initial = req.getLong();
+                    long param1 = req.getLong();
+                    long param2 = req.getLong();
+                    Account acc;
+                    if (kind == 'S') acc = new SavingsAccount(number, holder, initial, param1);
+                    else if (kind == 'C') acc = new CurrentAccount(number, holder, initial, param1, param2);
+                    else throw new IllegalArgumentException("Unknown account type. Use S or C.");
+                    if (!BankSimulation.openAccount(acc)) throw new AccountExists(number);
+                    out.putLong(acc.getBalance());
+                    break;
+                }
+                case BankProtocol.DEPOSIT: {
+                    Account acc = find(BankProtocol.getString(req));
+                    acc.deposit(req.getLong());
+                    out.putLong(acc.getBalance());
+                    break;
+                }
+                case BankProtocol.WITHDRAW: {
+                    Account acc = find(BankProtocol.getString(req));
+                    acc.withdraw(req.getLong());
+                    out.putLong(acc.getBalance());
+                    break;
+                }
+                case BankProtocol.TRANSFER: {
+                    Account from = find(BankProtocol.getString(req));
+                    Account to = find(BankProtocol.getString(req));
+                    Account.transfer(from, to, req.getLong());
+                    out.putLong(from.getBalance());
+                    break;
+                }
+                case BankProtocol.BALANCE:
+                    out.putLong(find(BankProtocol.getString(req)).getBalance());
+                    break;
+                case BankProtocol.STATEMENT: {
+                    Account acc = find(BankProtocol.getString(req));
+                    int limit = Math.min(Math.max(req.getInt(), 0), BankProtocol.MAX_STATEMENT_ENTRIES);
+                    long balance = acc.getBalance();
+                    int size = acc.getTransactionCount();
+                    TransactionHistory h = acc.entries(size - limit, size);
+                    out = BankProtocol.ensure(out, 8 + 4 + 4 + 4);
+                    out.putLong(balance).putInt(size).putInt(h.firstRetained()).putInt(h.retained());
+                    for (int i = h.firstRetained(); i < h.size(); i++) {
+                        String desc = h.descriptionAt(i);
+                        out = BankProtocol.ensure(out, 8 + 1 + 8 + 8 + 8 + 2 + 3 * desc.length());
+                        out.putLong(h.timeAt(i)).put(h.typeAt(i).code()).putLong(h.amountAt(i))
+                           .putLong(h.balanceAt(i)).putLong(h.referenceAt(i));
+                        BankProtocol.putString(out, desc);
+                    }
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown operation " + op);
+            }
+        }
+
+        private static Account find(String number) {
+            Account acc = BankSimulation.findAccount(number);
+            if (acc == null) throw new AccountNotFound(number);
+            return acc;
+        }
+    }
+
+    private static final class AccountNotFound extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        AccountNotFound(String number) {
+            super("Account not found: " + number, null, false, false);
+        }
+    }
+
+    private static final class AccountExists extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        AccountExists(String number) {
+            super("Account number already exists: " + number, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,1320 @@
+/*
+ * BankSimulation.java
+ * A simple bank account simulation demonstrating OOP: classes, inheritance,
+ * method overriding, and transaction history.
+ *
+ * How to build & run (terminal / VS Code), from the repository root:
+ *   mvn -B package
+ *   java -jar simulation/target/bank-simulation.jar
+ *
+ * Accounts are journaled to the bank-journal directory in the working
+ * directory and are restored from it on the next run. Use
+ * -Dbank.journal=<dir> to pick another directory (or -Dbank.journal= to run in
+ * memory only), -Dbank.groupCommitMicros=<n> to widen the journal's
+ * group-commit window, -Dbank.segmentBytes=<n> for the journal segment size
+ * and -Dbank.heapHistory=<n> for how many recent entries per account stay on
+ * the heap (older ones are read back from the journal). A snapshot of all
+ * accounts is written every -Dbank.snapshotSeconds=<n> (default 300, 0 turns
+ * it off) and on exit, so startup only replays the journal written since.
+ *
+ * Batch mode runs a command file instead of the menu (see BatchRunner for the
+ * command syntax) and reports throughput on stderr when it finishes:
+ *   java -jar simulation/target/bank-simulation.jar --batch commands.txt [results.txt]
+ * Use - for stdin/stdout. Every journaled operation waits for its group
+ * commit, so for bulk loads raise -Dbank.groupCommitMicros or run in memory.
+ *
+ * Server mode exposes the same accounts over TCP (see BankServer and
+ * BankProtocol; LoadGenerator is a matching load client) until the process
+ * is stopped, with -Dbank.serverWorkers=<n> operation threads (default 64):
+ *   java -jar simulation/target/bank-simulation.jar --serve [port]
+ *
+ * HTTP mode serves a JSON API over the same accounts (see HttpApi for the
+ * routes) until the process is stopped:
+ *   java -jar simulation/target/bank-simulation.jar --http [port]
+ *
+ * History entries are stamped by BankClock: -Dbank.clock=cached (default),
+ * system or simulated, the last for deterministic batch replays.
+ * -Dbank.balanceIndex=true keeps registered accounts in a BalanceIndex, so
+ * top-balance and balance-range queries stop scanning every account at the
+ * price of an index update on every balance change.
+ *
+ * Tools: Java 8+ (JDK), VS Code (Java Extension Pack recommended), Terminal
+ */
+
+package bank;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.time.*;
+import java.math.*;
+
+public class BankSimulation {
+    private static Scanner scanner = new Scanner(System.in);
+    private static ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    private static final HolderIndex holders = new HolderIndex();
+    private static final BalanceIndex balances = Boolean.getBoolean("bank.balanceIndex") ? new BalanceIndex() : null;
+    private static Journal journal;
+
+    public static void main(String[] args) throws IOException {
+        boolean batch = args.length > 0 && args[0].equals("--batch");
+        boolean serve = args.length > 0 && (args[0].equals("--serve") || args[0].equals("--http"));
+        String journalFile = System.getProperty("bank.journal", "bank-journal");
+        if (!journalFile.isEmpty()) {
+            openJournal(Paths.get(journalFile), Long.getLong("bank.groupCommitMicros", 0));
+            if (!accounts.isEmpty() && !batch && !serve) System.out.println("Restored " + accounts.size() + " account(s) from " + journalFile);
+            long snapshotSeconds = Long.getLong("bank.snapshotSeconds", 300);
+            if (snapshotSeconds > 0) journal.snapshotEvery(snapshotSeconds);
+        }
+        if (batch) {
+            if (args.length < 2) {
+                System.err.println("Usage: java -jar bank-simulation.jar --batch <commands|-> [results|-]");
+                return;
+            }
+            runBatch(args[1], args.length > 2 ? args[2] : "-");
+            closeJournal();
+            return;
+        }
+        if (serve && args[0].equals("--http")) {
+            serveHttp(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            return;
+        }
+        if (serve) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : 7070);
+            return;
+        }
+        if (accounts.isEmpty()) {
+            // Pre-create two sample accounts for quick testing
+            openAccount(new SavingsAccount("SA1001", "Alice", Money.ofMajor(5000), Money.parseRate("2.5")));
+            openAccount(new CurrentAccount("CA2001", "Bob", Money.ofMajor(2000), Money.ofMajor(500), Money.ofMajor(50)));
+        }
+
+        System.out.println("=== Welcome to the Bank Account Simulation ===");
+        boolean running = true;
+        while (running) {
+            printMenu();
+            String choice = scanner.nextLine().trim();
+            switch (choice) {
+                case "1": createAccount(); break;
+                case "2": deposit(); break;
+                case "3": withdraw(); break;
+                case "4": transfer(); break;
+                case "5": printStatement(); break;
+                case "6": listAccounts(); break;
+                case "7": monthEnd(); break;
+                case "8": running = false; break;
+                default:
+                    System.out.println("Invalid choice. Please enter a number from the menu.");
+            }
+        }
+        closeJournal();
+        System.out.println("Thank you for using the simulation. Goodbye!");
+    }
+
+    // Recovers the registry from the journal in dir and journals every change
+    // from now on.
+    static void openJournal(Path dir, long groupCommitMicros) throws IOException {
+        journal = Journal.open(dir, groupCommitMicros, accounts);
+        holders.addAll(accounts.values());
+        if (balances != null) balances.addAll(accounts.values());
+    }
+
+    // Takes a final snapshot so the next start replays nothing, then closes
+    // the journal.
+    static void closeJournal() throws IOException {
+        if (journal == null) return;
+        journal.snapshot();
+        journal.close();
+        journal = null;
+    }
+
+    // Registers a new account, journaling it first when a journal is open.
+    // Returns false if the account number is already taken. The account is
+    // only published in the registry once the journal has it and is listening
+    // to it, so no other thread can operate on it before its operations are
+    // journaled, and a failed journal write has nothing to roll back. The
+    // journal, not the registry, settles a race between two openers of the
+    // same number (every registered account is journaled), and its write runs
+    // outside the registry's bin lock.
+    public static boolean openAccount(Account acc) {
+        String number = acc.getAccountNumber();
+        if (journal == null) {
+            if (accounts.putIfAbsent(number, acc) != null) return false;
+        } else {
+            if (accounts.containsKey(number) || !journal.accountOpened(acc)) return false;
+            accounts.put(number, acc);
+        }
+        holders.add(acc);
+        if (balances != null) balances.add(acc);
+        acc.acknowledge();
+        return true;
+    }
+
+    private static void runBatch(String commands, String results) throws IOException {
+        InputStream in = commands.equals("-") ? System.in : new FileInputStream(commands);
+        OutputStream out = results.equals("-") ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(results);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+             PrintStream writer = new PrintStream(new BufferedOutputStream(out, 1 << 16), false, "UTF-8")) {
+            BatchRunner batch = new BatchRunner(writer);
+            long start = System.nanoTime();
+            batch.run(reader);
+            writer.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.println(String.format("%d command(s), %d failed, in %.3f s: %.0f ops/s",
+                    batch.executed(), batch.failed(), seconds, batch.executed() / seconds));
+        }
+    }
+
+    // Serves until the process is stopped; the shutdown hook takes a final
+    // snapshot and closes the journal, as leaving the menu does.
+    private static void serve(int port) throws IOException {
+        BankServer server = new BankServer(new InetSocketAddress(port), BankServer.DEFAULT_WORKERS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                closeJournal();
+            } catch (IOException e) {
+                System.err.println("Shutdown failed: " + e);
+            }
+        }));
+        System.out.println("Listening on port " + server.port());
+        try {
+            server.awaitClose();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Like serve, for HttpApi. The server's dispatcher thread keeps the
+    // process alive after main returns.
+    private static void serveHttp(int port) throws IOException {
+        HttpApi api = new HttpApi(new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                api.close();
+                closeJournal();
+            } catch (IOException e) {
+                System.err.println("Shutdown failed: " + e);
+            }
+        }));
+        System.out.println("HTTP API listening on port " + api.port()
+                + (api.usesVirtualThreads() ? " (virtual threads)" : ""));
+    }
+
+    // Registered account with the given number, or null.
+    static Account findAccount(String accNum) {
+        return accounts.get(accNum);
+    }
+
+    static Collection<Account> allAccounts() {
+        return accounts.values();
+    }
+
+    // Accounts held by name, ignoring case (see HolderIndex).
+    static List<Account> findByHolder(String name) {
+        return holders.find(name);
+    }
+
+    // Up to limit accounts whose holder name starts with prefix, ignoring case.
+    static List<Account> findByHolderPrefix(String prefix, int limit) {
+        return holders.withPrefix(prefix, limit);
+    }
+
+    // The n largest balances, largest first (see BalanceIndex; without
+    // -Dbank.balanceIndex this scans the registry).
+    static List<Account> topBalances(int n) {
+        return balances != null ? balances.top(n) : BalanceIndex.top(accounts.values(), n);
+    }
+
+    // Up to limit accounts of kind with min <= balance <= max, largest first:
+    // e.g. overdrawn current accounts, or savings close to MIN_BALANCE.
+    static List<Account> balancesBetween(long min, long max, Class<? extends Account> kind, int limit) {
+        return balances != null ? balances.between(min, max, kind, limit)
+                : BalanceIndex.between(accounts.values(), min, max, kind, limit);
+    }
+
+    private static void printMenu() {
+        System.out.println("\nMenu:");
+        System.out.println("1. Create account (Savings / Current)");
+        System.out.println("2. Deposit");
+        System.out.println("3. Withdraw");
+        System.out.println("4. Transfer");
+        System.out.println("5. Print account statement");
+        System.out.println("6. List accounts");
+        System.out.println("7. Run month-end interest");
+        System.out.println("8. Exit");
+        System.out.print("Choose an option: ");
+    }
+
+    private static void createAccount() {
+        System.out.print("Enter account type (S for Savings / C for Current): ");
+        String type = scanner.nextLine().trim().toUpperCase();
+        System.out.print("Enter account number (e.g. SA1002): ");
+        String accNum = scanner.nextLine().trim();
+        if (accounts.containsKey(accNum)) {
+            System.out.println("Account number already exists. Try again with a unique number.");
+            return;
+        }
+        System.out.print("Enter account holder name: ");
+        String holder = scanner.nextLine().trim();
+        long initial = readMoney("Enter initial deposit amount: ");
+        try {
+            if (type.equals("S")) {
+                long interest = readRate("Enter annual interest rate (percent, e.g. 2.5): ");
+                Account acc = new SavingsAccount(accNum, holder, initial, interest);
+                if (!openAccount(acc)) {
+                    System.out.println("Account number already exists. Try again with a unique number.");
+                    return;
+                }
+                System.out.println("Savings account created: " + acc.getAccountInfo());
+            } else if (type.equals("C")) {
+                long overdraft = readMoney("Enter overdraft limit (e.g. 500): ");
+                long fee = readMoney("Enter overdraft fee (e.g. 50): ");
+                Account acc = new CurrentAccount(accNum, holder, initial, overdraft, fee);
+                if (!openAccount(acc)) {
+                    System.out.println("Account number already exists. Try again with a unique number.");
+                    return;
+                }
+                System.out.println("Current account created: " + acc.getAccountInfo());
+            } else {
+                System.out.println("Unknown account type. Use S or C.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error creating account: " + e.getMessage());
+        }
+    }
+
+    private static void deposit() {
+        System.out.print("Enter account number: ");
+        String accNum = scanner.nextLine().trim();
+        Account acc = accounts.get(accNum);
+        if (acc == null) {
+            System.out.println("Account not found.");
+            return;
+        }
+        long amount = readMoney("Enter deposit amount: ");
+        try {
+            acc.deposit(amount);
+            System.out.println("Deposit successful. New balance: " + Money.format(acc.getBalance()));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Deposit failed: " + e.getMessage());
+        }
+    }
+
+    private static void withdraw() {
+        System.out.print("Enter account number: ");
+        String accNum = scanner.nextLine().trim();
+        Account acc = accounts.get(accNum);
+        if (acc == null) {
+            System.out.println("Account not found.");
+            return;
+        }
+        long amount = readMoney("Enter withdrawal amount: ");
+        try {
+            acc.withdraw(amount);
+            System.out.println("Withdrawal successful. New balance: " + Money.format(acc.getBalance()));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Withdrawal failed: " + e.getMessage());
+        } catch (InsufficientFundsException e) {
+            System.out.println("Withdrawal failed: " + e.getMessage());
+        }
+    }
+
+    private static void transfer() {
+        System.out.print("Enter source account number: ");
+        String fromNum = scanner.nextLine().trim();
+        System.out.print("Enter destination account number: ");
+        String toNum = scanner.nextLine().trim();
+        long amount = readMoney("Enter transfer amount: ");
+        try {
+            transfer(fromNum, toNum, amount);
+            System.out.println("Transfer successful. New balance of " + fromNum + ": "
+                    + Money.format(accounts.get(fromNum).getBalance()));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Transfer failed: " + e.getMessage());
+        } catch (InsufficientFundsException e) {
+            System.out.println("Transfer failed: " + e.getMessage());
+        }
+    }
+
+    // Moves money between two registered accounts atomically (see Account.transfer).
+    public static void transfer(String fromNum, String toNum, long amount) throws InsufficientFundsException {
+        Account from = accounts.get(fromNum);
+        if (from == null) throw new IllegalArgumentException("Source account not found.");
+        Account to = accounts.get(toNum);
+        if (to == null) throw new IllegalArgumentException("Destination account not found.");
+        Account.transfer(from, to, amount);
+    }
+
+    private static void printStatement() {
+        System.out.print("Enter account number: ");
+        String accNum = scanner.nextLine().trim();
+        Account acc = accounts.get(accNum);
+        if (acc == null) {
+            System.out.println("Account not found.");
+            return;
+        }
+        acc.printStatement();
+    }
+
+    // Posts interest to every savings account, using all cores: the simple
+    // monthly rate, or what each account accrued daily since its last posting.
+    static long monthEnd(PrintStream out, boolean accrued) {
+        long start = System.nanoTime();
+        long interest = accrued
+                ? MonthEnd.postAccruedInterest(accounts, ForkJoinPool.commonPool(), journal)
+                : MonthEnd.postInterest(accounts, ForkJoinPool.commonPool(), journal);
+        out.println(String.format("Month-end interest posted: %s across %d account(s) in %.1f ms",
+                Money.format(interest), accounts.size(), (System.nanoTime() - start) / 1e6));
+        return interest;
+    }
+
+    private static void monthEnd() {
+        monthEnd(System.out, false);
+    }
+
+    private static void listAccounts() {
+        if (accounts.isEmpty()) {
+            System.out.println("No accounts available.");
+            return;
+        }
+        System.out.println("\nAccounts:");
+        for (Account acc : accounts.values()) {
+            System.out.println(acc.getAccountInfo());
+        }
+    }
+
+    private static long readMoney(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String line = scanner.nextLine().trim();
+            try {
+                return Money.parse(line);
+            } catch (NumberFormatException | ArithmeticException e) {
+                System.out.println("Please enter a valid amount with at most two decimal places.");
+            }
+        }
+    }
+
+    private static long readRate(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String line = scanner.nextLine().trim();
+            try {
+                return Money.parseRate(line);
+            } catch (NumberFormatException | ArithmeticException e) {
+                System.out.println("Please enter a valid percentage.");
+            }
+        }
+    }
+}
+
+// Account and subclasses
+//
+// All money is held as a long count of minor units (cents, see Money), so
+// balances are exact and can be updated with a single compare-and-set. By default every account is guarded by
+// one of the striped locks in AccountLocks: the balance change and the matching
+// history entry are made while holding that lock, so a statement never shows an
+// entry whose balance does not match the account.
+//
+// Hot accounts (payroll, merchant) can be switched to lock-free mode with
+// setLockFree(true). Deposits then become a plain atomic add and withdrawals a
+// CAS loop that still enforces the account's floor; the lock is only taken for
+// the short history append, so entries of racing operations may be listed out
+// of order, but each one carries the balance its own operation produced. For
+// the same reason a lock-free account has no point-in-time balances.
+abstract class Account {
+    // Returned by debit() when the withdrawal would breach the account's floor.
+    protected static final long REJECTED = Long.MIN_VALUE;
+    protected static final long NO_FEE = -1;
+    private static final InsufficientFundsException NO_FUNDS =
+            InsufficientFundsException.stackless("Insufficient funds.", RejectionReason.INSUFFICIENT_FUNDS, 0);
+    // Returned by balanceAt() for a time before the account was opened.
+    static final long NO_BALANCE = Long.MIN_VALUE;
+    private static final AtomicLong TRANSFER_REFS = new AtomicLong();
+    private static final ThreadLocal<AckBatch> ACK_BATCH = ThreadLocal.withInitial(AckBatch::new);
+    private static final AccountListener[] NO_LISTENERS = new AccountListener[0];
+    private static final AtomicLongFieldUpdater<Account> BALANCE =
+            AtomicLongFieldUpdater.newUpdater(Account.class, "balance");
+
+    protected final String accountNumber;
+    protected final String accountHolder;
+    protected volatile long balance;
+    protected final TransactionHistory history;
+    protected final ReentrantLock lock;
+    private boolean lockFree;
+    private volatile AccountListener[] listeners = NO_LISTENERS;
+    // Where entries trimmed from the heap history can be read back from.
+    volatile HistoryArchive archive;
+    // This account's entry in the BalanceIndex; written under the account lock.
+    volatile BalanceIndex.Key balanceKey;
+
+    public Account(String accountNumber, String accountHolder, long initialBalance) {
+        if (accountNumber == null || accountNumber.isEmpty()) throw new IllegalArgumentException("Account number required");
+        if (accountHolder == null || accountHolder.isEmpty()) throw new IllegalArgumentException("Account holder name required");
+        if (initialBalance < 0) throw new IllegalArgumentException("Initial balance cannot be negative");
+        this.accountNumber = accountNumber;
+        this.accountHolder = accountHolder;
+        this.lock = AccountLocks.forAccount(accountNumber);
+        this.balance = initialBalance;
+        this.history = new TransactionHistory();
+        addTransaction(TransactionType.OPEN, balance, balance, "Account opened");
+    }
+
+    // Rebuilds an account from a snapshot: nothing is recorded, and history
+    // holds whatever part of the account's history is kept on the heap.
+    Account(String accountNumber, String accountHolder, long balance, TransactionHistory history) {
+        this.accountNumber = accountNumber;
+        this.accountHolder = accountHolder;
+        this.lock = AccountLocks.forAccount(accountNumber);
+        this.balance = balance;
+        this.history = history;
+    }
+
+    public String getAccountNumber() { return accountNumber; }
+    public String getAccountHolder() { return accountHolder; }
+    // Current balance in minor units.
+    public long getBalance() { return balance; }
+
+    public boolean isLockFree() { return lockFree; }
+
+    // Switch between locked and lock-free balance updates. Must be called before
+    // the account is shared with other threads (e.g. before it is registered).
+    public void setLockFree(boolean lockFree) { this.lockFree = lockFree; }
+
+    public void deposit(long amount) {
+        if (amount <= 0) throw new IllegalArgumentException("Deposit amount must be greater than zero.");
+        credit(amount, TransactionType.DEPOSIT, "Deposit");
+        acknowledge();
+    }
+
+    public final void withdraw(long amount) throws InsufficientFundsException {
+        if (amount <= 0) throw new IllegalArgumentException("Withdrawal amount must be greater than zero.");
+        if (withdrawal(amount, null) == REJECTED) throw rejection();
+        acknowledge();
+    }
+
+    // Non-throwing deposit: fills in and returns result (see OperationResult),
+    // allocating nothing.
+    public final OperationResult tryDeposit(long amount, OperationResult result) {
+        if (amount <= 0) return result.invalid();
+        long after = credit(amount, TransactionType.DEPOSIT, "Deposit", 0, result);
+        acknowledge();
+        return result.ok(after);
+    }
+
+    // Non-throwing withdraw: a refusal is a REJECTED result with the account's
+    // RejectionReason rather than an InsufficientFundsException.
+    public final OperationResult tryWithdraw(long amount, OperationResult result) {
+        if (amount <= 0) return result.invalid();
+        long after = withdrawal(amount, result);
+        if (after == REJECTED) return result.rejected(rejectionReason(), balance);
+        acknowledge();
+        return result.ok(after);
+    }
+
+    // Debits a withdrawal the way this kind of account does. Returns the new
+    // balance, or REJECTED. result, if not null, gets the entry's sequence.
+    protected long withdrawal(long amount, OperationResult result) {
+        return debit(amount, 0, "Withdrawal", result);
+    }
+
+    // Adds amount (minor units) to the balance and records it. Returns the new balance.
+    protected final long credit(long amount, TransactionType type, String desc) {
+        return credit(amount, type, desc, 0, null);
+    }
+
+    protected final long credit(long amount, TransactionType type, String desc, long ref, OperationResult result) {
+        if (lockFree) {
+            long after = BALANCE.addAndGet(this, amount);
+            lock.lock();
+            try {
+                addOrUndo(amount, type, amount, after, desc, ref);
+                if (result != null) result.sequence(history.size() - 1);
+            } finally {
+                lock.unlock();
+            }
+            return after;
+        }
+        lock.lock();
+        try {
+            long after = balance + amount;
+            balance = after;
+            addOrUndo(amount, type, amount, after, desc, ref);
+            if (result != null) result.sequence(history.size() - 1);
+            return after;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes amount (minor units) unless the balance would drop below floor.
+    // Returns the new balance, or REJECTED without changing anything.
+    protected final long debit(long amount, long floor, String desc, OperationResult result) {
+        return debit(amount, floor, NO_FEE, TransactionType.WITHDRAW, desc, 0, result);
+    }
+
+    // As debit(), but if the withdrawal leaves the balance negative the fee is
+    // taken in the same atomic step and recorded as a separate FEE entry.
+    // result, if not null, gets the sequence of the debit's own entry.
+    protected final long debit(long amount, long floor, long overdraftFee, TransactionType type, String desc, long ref,
+                               OperationResult result) {
+        if (lockFree) {
+            long current, afterWithdrawal, after;
+            do {
+                current = balance;
+                afterWithdrawal = current - amount;
+                if (afterWithdrawal < floor) return REJECTED;
+                after = (overdraftFee >= 0 && afterWithdrawal < 0) ? afterWithdrawal - overdraftFee : afterWithdrawal;
+            } while (!BALANCE.compareAndSet(this, current, after));
+            lock.lock();
+            try {
+                addOrUndo(after - current, type, amount, afterWithdrawal, desc, ref);
+                if (result != null) result.sequence(history.size() - 1);
+                if (overdraftFee >= 0 && afterWithdrawal < 0) {
+                    addOrUndo(-overdraftFee, TransactionType.FEE, overdraftFee, after, "Overdraft fee applied", 0);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return after;
+        }
+        lock.lock();
+        try {
+            long after = balance - amount;
+            if (after < floor) return REJECTED;
+            balance = after;
+            addOrUndo(-amount, type, amount, after, desc, ref);
+            if (result != null) result.sequence(history.size() - 1);
+            // If account goes negative, apply overdraft fee
+            if (overdraftFee >= 0 && after < 0) {
+                after -= overdraftFee;
+                balance = after;
+                addOrUndo(-overdraftFee, TransactionType.FEE, overdraftFee, after, "Overdraft fee applied", 0);
+            }
+            return after;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Highest transfer reference handed out so far; persisted by snapshots.
+    static long lastTransferRef() { return TRANSFER_REFS.get(); }
+
+    // Makes sure new transfer references continue after a restored one.
+    static void noteTransferRef(long ref) { TRANSFER_REFS.accumulateAndGet(ref, Math::max); }
+
+    // Lowest balance a withdrawal or outgoing transfer may leave behind.
+    protected long withdrawalFloor() { return 0; }
+
+    // Fee charged when a debit leaves the balance negative, or NO_FEE.
+    protected long overdraftFeeMinor() { return NO_FEE; }
+
+    protected String insufficientFundsMessage() { return "Insufficient funds."; }
+
+    // What a refused withdrawal or outgoing transfer throws. The reason and
+    // message only depend on the account's floor, so this is normally a
+    // preallocated stackless exception (see InsufficientFundsException).
+    protected InsufficientFundsException rejection() {
+        return InsufficientFundsException.stackTraces ? InsufficientFundsException.of(this) : NO_FUNDS;
+    }
+
+    protected RejectionReason rejectionReason() { return RejectionReason.INSUFFICIENT_FUNDS; }
+
+    // Moves amount from one account to another as a single step: the debit and
+    // credit happen while both accounts' lock stripes are held, and the two
+    // history entries share a transfer reference. Stripes are always taken in
+    // ascending stripe order, so opposing transfers (A->B and B->A) or transfers
+    // whose accounts hash onto crossing stripes can never deadlock.
+    public static void transfer(Account from, Account to, long amount) throws InsufficientFundsException {
+        if (amount <= 0) throw new IllegalArgumentException("Transfer amount must be greater than zero.");
+        if (from == to || from.accountNumber.equals(to.accountNumber)) {
+            throw new IllegalArgumentException("Cannot transfer to the same account.");
+        }
+        if (move(from, to, amount, null) == REJECTED) throw from.rejection();
+    }
+
+    // Non-throwing transfer (see tryWithdraw). The result describes the
+    // source account.
+    public static OperationResult tryTransfer(Account from, Account to, long amount, OperationResult result) {
+        if (amount <= 0 || from == to || from.accountNumber.equals(to.accountNumber)) return result.invalid();
+        long after = move(from, to, amount, result);
+        return after == REJECTED ? result.rejected(from.rejectionReason(), from.balance) : result.ok(after);
+    }
+
+    // The transfer itself. Returns the source's new balance, or REJECTED
+    // without changing either account.
+    private static long move(Account from, Account to, long amount, OperationResult result) {
+        long ref = TRANSFER_REFS.incrementAndGet();
+        long after;
+        int fromStripe = AccountLocks.stripeOf(from.accountNumber);
+        int toStripe = AccountLocks.stripeOf(to.accountNumber);
+        ReentrantLock first = fromStripe <= toStripe ? from.lock : to.lock;
+        ReentrantLock second = fromStripe <= toStripe ? to.lock : from.lock;
+        first.lock();
+        try {
+            second.lock();
+            try {
+                after = from.debit(amount, from.withdrawalFloor(), from.overdraftFeeMinor(),
+                        TransactionType.XFER_OUT, Descriptions.transferTo(to.accountNumber), ref, result);
+                if (after == REJECTED) return REJECTED;
+                to.credit(amount, TransactionType.XFER_IN, Descriptions.transferFrom(from.accountNumber), ref, null);
+            } finally {
+                second.unlock();
+            }
+        } finally {
+            first.unlock();
+        }
+        from.acknowledge();
+        to.acknowledge();
+        return after;
+    }
+
+    // Atomically replaces expected with update; only meaningful in lock-free mode.
+    protected final boolean compareAndSetBalance(long expected, long update) {
+        return BALANCE.compareAndSet(this, expected, update);
+    }
+
+    // Appends a history entry under the account lock (used by lock-free updates).
+    protected final void record(TransactionType type, long amount, long balanceAfter, String desc, long ref) {
+        lock.lock();
+        try {
+            addOrUndo(type.applyTo(0, amount), type, amount, balanceAfter, desc, ref);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Records the entry for a balance change the caller has already made,
+    // which added delta to the balance. If the entry is vetoed (see
+    // AccountListener: the journal could not write it), the change is taken
+    // back before the failure propagates, so the account never gets ahead of
+    // its journal. Lock-free accounts move back by delta rather than being
+    // reset, keeping any CAS that ran in between. Callers hold the account lock.
+    protected final void addOrUndo(long delta, TransactionType type, long amount, long balanceAfter, String desc, long ref) {
+        addOrUndo(delta, BankClock.stamp(), type, amount, balanceAfter, desc, ref);
+    }
+
+    protected final void addOrUndo(long delta, long epochNanos, TransactionType type, long amount, long balanceAfter,
+                                   String desc, long ref) {
+        try {
+            addTransaction(epochNanos, type, amount, balanceAfter, desc, ref);
+        } catch (RuntimeException e) {
+            if (lockFree) BALANCE.addAndGet(this, -delta);
+            else balance -= delta;
+            throw e;
+        }
+    }
+
+    // Callers must hold the account lock (the constructor is the only exception,
+    // since the account is not visible to other threads yet).
+    protected void addTransaction(TransactionType type, long amount, long balanceAfter, String desc) {
+        addTransaction(type, amount, balanceAfter, desc, 0);
+    }
+
+    protected void addTransaction(TransactionType type, long amount, long balanceAfter, String desc, long ref) {
+        addTransaction(BankClock.stamp(), type, amount, balanceAfter, desc, ref);
+    }
+
+    // A listener that throws vetoes the entry: it is removed again and the
+    // failure propagates (callers that changed the balance use addOrUndo).
+    protected void addTransaction(long epochNanos, TransactionType type, long amount, long balanceAfter, String desc, long ref) {
+        history.append(epochNanos, type, amount, balanceAfter, desc, ref);
+        AccountListener[] ls = listeners;
+        try {
+            for (AccountListener l : ls) l.entryAdded(this, history.size() - 1);
+        } catch (RuntimeException e) {
+            history.removeLast();
+            throw e;
+        }
+        entryRecorded(epochNanos, type, amount);
+    }
+
+    // Called with the account lock held for every entry appended to the
+    // history, including entries replayed from the journal.
+    protected void entryRecorded(long epochNanos, TransactionType type, long amount) { }
+
+    // Lets listeners finish an operation once the account lock is released;
+    // the journal uses this to hold the caller until its entries are durable.
+    // Inside an acknowledgement batch the account is only remembered, and is
+    // acknowledged when the batch ends.
+    protected final void acknowledge() {
+        AckBatch batch = ACK_BATCH.get();
+        if (batch.depth > 0) {
+            batch.add(this);
+            return;
+        }
+        AccountListener[] ls = listeners;
+        for (AccountListener l : ls) l.operationCompleted(this);
+    }
+
+    // Starts deferring acknowledgements on this thread. Operations still
+    // record and journal their entries, but do not wait for their own
+    // commit; endAcknowledgementBatch() then waits once for all of them, so a
+    // whole batch of operations shares a single group commit. Batches nest.
+    static void beginAcknowledgementBatch() {
+        ACK_BATCH.get().depth++;
+    }
+
+    static void endAcknowledgementBatch() {
+        AckBatch batch = ACK_BATCH.get();
+        if (--batch.depth > 0) return;
+        Account[] pending = batch.pending;
+        int n = batch.size;
+        batch.size = 0;
+        try {
+            for (int i = 0; i < n; i++) pending[i].acknowledge();
+        } finally {
+            Arrays.fill(pending, 0, n, null);
+        }
+    }
+
+    // Accounts acknowledged while a batch is open on this thread.
+    private static final class AckBatch {
+        int depth;
+        Account[] pending = new Account[16];
+        int size;
+
+        void add(Account account) {
+            if (size > 0 && pending[size - 1] == account) return;
+            if (size == pending.length) pending = Arrays.copyOf(pending, size * 2);
+            pending[size++] = account;
+        }
+    }
+
+    void addListener(AccountListener listener) {
+        lock.lock();
+        try {
+            AccountListener[] ls = Arrays.copyOf(listeners, listeners.length + 1);
+            ls[ls.length - 1] = listener;
+            listeners = ls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Re-applies a history entry read back from the journal. The balance is
+    // rebuilt from the entry amounts rather than the recorded balanceAfter,
+    // because lock-free accounts may journal racing entries out of order.
+    // Listeners are not notified.
+    void restoreEntry(long epochNanos, TransactionType type, long amount, long balanceAfter, String desc, long ref) {
+        lock.lock();
+        try {
+            if (type == TransactionType.OPEN) history.clear();
+            history.append(epochNanos, type, amount, balanceAfter, desc, ref);
+            entryRecorded(epochNanos, type, amount);
+            balance = type.applyTo(balance, amount);
+            if (ref != 0) noteTransferRef(ref);
+            BankClock.observe(epochNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTransactionCount() {
+        lock.lock();
+        try {
+            return history.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void printStatement() {
+        printStatement(System.out);
+    }
+
+    public void printStatement(PrintStream out) {
+        // Copy under the lock so concurrent deposits cannot tear the statement,
+        // then print without blocking writers.
+        TransactionHistory entries;
+        long current;
+        lock.lock();
+        try {
+            entries = history.copy();
+            current = balance;
+        } finally {
+            lock.unlock();
+        }
+        // Entries trimmed from the heap are read back from the journal.
+        HistoryArchive older = archive;
+        TransactionHistory archived = entries.firstRetained() > 0 && older != null
+                ? older.read(0, entries.firstRetained()) : null;
+        StatementFormatter.forThread().print(out, accountNumber, accountHolder, current, archived, entries);
+    }
+
+    // Statement of entries [from, to) only, e.g. one page or a date range
+    // found with indexAt.
+    public void printStatement(PrintStream out, int from, int to) {
+        long current = balance;
+        StatementFormatter.forThread().print(out, accountNumber, accountHolder, current, null, entries(from, to));
+    }
+
+    // Entries [from, to) of the account's history, reading the part that is
+    // no longer on the heap back from the archive. The result is a copy of
+    // just those entries, so a page costs O(page) however long the history.
+    TransactionHistory entries(int from, int to) {
+        TransactionHistory recent;
+        int split;
+        lock.lock();
+        try {
+            to = Math.min(to, history.size());
+            from = Math.max(Math.min(from, to), 0);
+            split = Math.min(Math.max(from, history.firstRetained()), to);
+            recent = history.copy(split, to);
+        } finally {
+            lock.unlock();
+        }
+        HistoryArchive older = archive;
+        if (from == split || older == null) return recent;
+        TransactionHistory out = TransactionHistory.startingAt(from, to - from);
+        TransactionHistory archived = older.read(from, split);
+        for (int i = from; i < split; i++) copyEntry(archived, i, out);
+        for (int i = split; i < to; i++) copyEntry(recent, i, out);
+        return out;
+    }
+
+    // Index of the first history entry stamped at or after epochNanos, or the
+    // history size if there is none. Entries are stamped under the account
+    // lock as they are appended, so they are in time order: this is a binary
+    // search of the heap entries, continued in the archive when the time
+    // falls before them.
+    int indexAt(long epochNanos) {
+        int firstRetained;
+        lock.lock();
+        try {
+            int i = history.indexAtOrAfter(epochNanos);
+            firstRetained = history.firstRetained();
+            if (i > firstRetained || firstRetained == 0) return i;
+        } finally {
+            lock.unlock();
+        }
+        HistoryArchive older = archive;
+        return older == null ? firstRetained : older.indexAtOrAfter(epochNanos, firstRetained);
+    }
+
+    // Entries stamped in [fromNanos, toNanos), oldest first, at most limit of
+    // them: O(log n + k). A longer range continues with entries(next, ...)
+    // from the index after the last entry returned.
+    TransactionHistory entriesBetween(long fromNanos, long toNanos, int limit) {
+        int from = indexAt(fromNanos);
+        int to = indexAt(toNanos);
+        return entries(from, (int) Math.min(to, (long) from + limit));
+    }
+
+    // Balance at the given instant: balanceAfter of the last entry stamped at
+    // or before it, or NO_BALANCE if the account had not been opened yet. A
+    // binary search of the heap entries, continued in the archive, whose
+    // checkpoints carry running balances (see Journal.Trail.balanceAt). Throws
+    // IllegalArgumentException for lock-free accounts: the last entry before
+    // the instant may carry a balance that a racing operation had already
+    // superseded.
+    public long balanceAt(long epochNanos) {
+        if (isLockFree()) throw new IllegalArgumentException("No point-in-time balances for lock-free account " + accountNumber);
+        int firstRetained;
+        lock.lock();
+        try {
+            int i = history.indexAfter(epochNanos);
+            firstRetained = history.firstRetained();
+            if (i > firstRetained) return history.balanceAt(i - 1);
+            if (firstRetained == 0) return NO_BALANCE;
+        } finally {
+            lock.unlock();
+        }
+        HistoryArchive older = archive;
+        return older == null ? NO_BALANCE : older.balanceAt(epochNanos, firstRetained);
+    }
+
+    private static void copyEntry(TransactionHistory from, int i, TransactionHistory to) {
+        to.append(from.timeAt(i), from.typeAt(i), from.amountAt(i), from.balanceAt(i), from.descriptionAt(i), from.referenceAt(i));
+    }
+
+    public String getAccountInfo() {
+        return accountNumber + " | " + accountHolder + " | Balance: " + Money.format(balance);
+    }
+
+}
+
+class SavingsAccount extends Account {
+    // Annual rate in Money rate units (2.5% is 25_000).
+    private final long annualInterestRate;
+    static final long MIN_BALANCE = Money.ofMajor(1000);
+    // Interest is rounded to the cent with banker's rounding unless a caller asks otherwise.
+    static final RoundingMode INTEREST_ROUNDING = RoundingMode.HALF_EVEN;
+    static final String INTEREST_DESCRIPTION = "Monthly interest applied";
+
+    static final String ACCRUED_INTEREST_DESCRIPTION = "Accrued interest posted";
+    // Daily accrual since the last interest posting; guarded by the account
+    // lock. No initializer: the superclass constructor already creates it
+    // when it records the OPEN entry.
+    private InterestAccrual accrual;
+
+    public SavingsAccount(String accountNumber, String accountHolder, long initialBalance, long annualInterestRate) {
+        super(accountNumber, accountHolder, initialBalance);
+        this.annualInterestRate = annualInterestRate;
+    }
+
+    // The accrual starts from the restored balance; Snapshot restores the
+    // rest of its state.
+    SavingsAccount(String accountNumber, String accountHolder, long balance, long annualInterestRate, TransactionHistory history) {
+        super(accountNumber, accountHolder, balance, history);
+        this.annualInterestRate = annualInterestRate;
+        this.accrual = new InterestAccrual();
+        this.accrual.restore(balance, InterestAccrual.NO_DAY, 0);
+    }
+
+    @Override
+    protected void entryRecorded(long epochNanos, TransactionType type, long amount) {
+        if (accrual == null) accrual = new InterestAccrual();
+        accrual.record(epochNanos, type, amount);
+    }
+
+    // Callers must hold the account lock.
+    InterestAccrual accrual() { return accrual; }
+
+    // Interest accrued daily since the last posting, up to the end of
+    // yesterday, in minor units.
+    public long getAccruedInterest() {
+        lock.lock();
+        try {
+            return accrual.accrued(EpochDays.today(), annualInterestRate, INTEREST_ROUNDING);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Posts the interest accrued daily since the last posting (see
+    // InterestAccrual) and starts a new period today. Returns the interest.
+    public long postAccruedInterest() {
+        long interest = postAccrued(INTEREST_ROUNDING);
+        if (interest > 0) acknowledge();
+        return interest;
+    }
+
+    // As postAccruedInterest, without waiting for the journal.
+    long postAccrued(RoundingMode rounding) {
+        lock.lock();
+        try {
+            // The entry is stamped with the same instant the accrual is
+            // computed for, so replaying it closes the period on the same
+            // day. Stamping under the lock keeps the history in time order.
+            long now = BankClock.stamp();
+            long interest = accrual.accrued(EpochDays.of(now), annualInterestRate, rounding);
+            if (interest <= 0) return 0;
+            long after;
+            if (isLockFree()) {
+                long current;
+                do {
+                    current = balance;
+                } while (!compareAndSetBalance(current, current + interest));
+                after = current + interest;
+            } else {
+                after = balance + interest;
+                balance = after;
+            }
+            addOrUndo(interest, now, TransactionType.INTEREST, interest, after, ACCRUED_INTEREST_DESCRIPTION, 0);
+            return interest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected long withdrawal(long amount, OperationResult result) {
+        return debit(amount, MIN_BALANCE, "Savings withdrawal", result);
+    }
+
+    @Override
+    protected long withdrawalFloor() { return MIN_BALANCE; }
+
+    @Override
+    protected String insufficientFundsMessage() { return BELOW_MIN_BALANCE.getMessage(); }
+
+    // Every savings account has the same floor, so they share one rejection.
+    private static final InsufficientFundsException BELOW_MIN_BALANCE = InsufficientFundsException.stackless(
+            "Cannot withdraw. Savings accounts must maintain a minimum balance of " + Money.format(MIN_BALANCE),
+            RejectionReason.MIN_BALANCE, MIN_BALANCE);
+
+    @Override
+    protected InsufficientFundsException rejection() {
+        return InsufficientFundsException.stackTraces ? InsufficientFundsException.of(this) : BELOW_MIN_BALANCE;
+    }
+
+    @Override
+    protected RejectionReason rejectionReason() { return RejectionReason.MIN_BALANCE; }
+
+    // Apply monthly interest (simple monthly interest for demonstration).
+    // Returns the interest posted, in minor units.
+    public long applyMonthlyInterest() {
+        return applyMonthlyInterest(INTEREST_ROUNDING);
+    }
+
+    public long applyMonthlyInterest(RoundingMode rounding) {
+        long interest = postMonthlyInterest(rounding);
+        if (interest > 0) acknowledge();
+        return interest;
+    }
+
+    // Posts the interest without waiting for the journal; callers acknowledge
+    // (or wait for durability once for a whole batch, see MonthEnd).
+    long postMonthlyInterest(RoundingMode rounding) {
+        if (isLockFree()) {
+            long current, interest;
+            do {
+                current = balance;
+                interest = Money.monthlyInterest(current, annualInterestRate, rounding);
+                if (interest <= 0) return 0;
+            } while (!compareAndSetBalance(current, current + interest));
+            record(TransactionType.INTEREST, interest, current + interest, INTEREST_DESCRIPTION, 0);
+            return interest;
+        }
+        lock.lock();
+        try {
+            long interest = Money.monthlyInterest(balance, annualInterestRate, rounding);
+            if (interest > 0) {
+                balance += interest;
+                addOrUndo(interest, TransactionType.INTEREST, interest, balance, INTEREST_DESCRIPTION, 0);
+                return interest;
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAnnualInterestRate() { return annualInterestRate; }
+}
+
+class CurrentAccount extends Account {
+    private final long overdraftLimit;
+    private final long overdraftFee;
+    // Created on the first rejection; racing threads may each create one.
+    private InsufficientFundsException overLimit;
+
+    public CurrentAccount(String accountNumber, String accountHolder, long initialBalance, long overdraftLimit, long overdraftFee) {
+        super(accountNumber, accountHolder, initialBalance);
+        if (overdraftLimit < 0) throw new IllegalArgumentException("Overdraft limit cannot be negative.");
+        if (overdraftFee < 0) throw new IllegalArgumentException("Overdraft fee cannot be negative.");
+        this.overdraftLimit = overdraftLimit;
+        this.overdraftFee = overdraftFee;
+    }
+
+    CurrentAccount(String accountNumber, String accountHolder, long balance, long overdraftLimit, long overdraftFee,
+                   TransactionHistory history) {
+        super(accountNumber, accountHolder, balance, history);
+        this.overdraftLimit = overdraftLimit;
+        this.overdraftFee = overdraftFee;
+    }
+
+    @Override
+    protected long withdrawal(long amount, OperationResult result) {
+        return debit(amount, withdrawalFloor(), overdraftFeeMinor(), TransactionType.WITHDRAW, "Current withdrawal", 0, result);
+    }
+
+    @Override
+    protected long withdrawalFloor() { return -overdraftLimit; }
+
+    @Override
+    protected long overdraftFeeMinor() { return overdraftFee; }
+
+    @Override
+    protected String insufficientFundsMessage() {
+        return "Cannot withdraw: would exceed overdraft limit of " + Money.format(overdraftLimit);
+    }
+
+    // The message depends on the overdraft limit, so each account caches its own.
+    @Override
+    protected InsufficientFundsException rejection() {
+        if (InsufficientFundsException.stackTraces) return InsufficientFundsException.of(this);
+        InsufficientFundsException e = overLimit;
+        if (e == null) {
+            e = InsufficientFundsException.stackless(insufficientFundsMessage(), RejectionReason.OVERDRAFT_LIMIT, -overdraftLimit);
+            overLimit = e;
+        }
+        return e;
+    }
+
+    @Override
+    protected RejectionReason rejectionReason() { return RejectionReason.OVERDRAFT_LIMIT; }
+
+    public long getOverdraftLimit() { return overdraftLimit; }
+    public long getOverdraftFee() { return overdraftFee; }
+}
+
+// Observer of account history. entryAdded is called with the account lock held,
+// right after the entry is appended; operationCompleted is called once the
+// public operation that produced the entries has released the lock. An
+// entryAdded that throws vetoes the entry (the account drops it and undoes
+// its balance change), so it must throw before taking any effect of its own.
+// Only the journal does; it is always the first listener, since it attaches
+// before an account is registered (or right after recovery).
+interface AccountListener {
+    void entryAdded(Account account, int index);
+
+    default void operationCompleted(Account account) { }
+}
+
+// Read access to history entries that are no longer kept on the heap.
+interface HistoryArchive {
+    // Entries [from, to) of the account's history, in order.
+    TransactionHistory read(int from, int to);
+
+    // Index of the first entry below to stamped at or after epochNanos, or to
+    // if there is none. A binary search reading one entry per probe.
+    default int indexAtOrAfter(long epochNanos, int to) {
+        int lo = 0;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (read(mid, mid + 1).timeAt(mid) < epochNanos) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Balance after the last entry below to stamped at or before epochNanos,
+    // or Account.NO_BALANCE if there is none. Also one entry per probe.
+    default long balanceAt(long epochNanos, int to) {
+        int lo = 0;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (read(mid, mid + 1).timeAt(mid) <= epochNanos) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo == 0 ? Account.NO_BALANCE : read(lo - 1, lo).balanceAt(lo - 1);
+    }
+}
+
+// Fixed table of locks shared by all accounts. An account is guarded by the
+// stripe its account number hashes to, so memory stays bounded however many
+// accounts are open while unrelated accounts rarely contend.
+// The stripe count can be tuned with -Dbank.lockStripes=<power of two>.
+final class AccountLocks {
+    private static final int STRIPES = stripeCount();
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) LOCKS[i] = new ReentrantLock();
+    }
+
+    private AccountLocks() { }
+
+    static int stripeOf(String accountNumber) {
+        int h = accountNumber.hashCode();
+        h ^= (h >>> 16);
+        return h & (STRIPES - 1);
+    }
+
+    static ReentrantLock forAccount(String accountNumber) {
+        return LOCKS[stripeOf(accountNumber)];
+    }
+
+    static int stripes() { return STRIPES; }
+
+    private static int stripeCount() {
+        int requested = Integer.getInteger("bank.lockStripes", 4096);
+        if (requested < 1) requested = 1;
+        return Integer.highestOneBit(requested) == requested ? requested : Integer.highestOneBit(requested) << 1;
+    }
+}
+
+// Read-only view of one entry in an account's TransactionHistory. Views are
+// cheap and can be repositioned, so iterating a statement needs one object.
+class Transaction {
+    private TransactionHistory history;
+    private int index;
+
+    Transaction(TransactionHistory history, int index) {
+        this.history = history;
+        this.index = index;
+    }
+
+    Transaction moveTo(TransactionHistory history, int index) {
+        this.history = history;
+        this.index = index;
+        return this;
+    }
+
+    public LocalDateTime getTimestamp() {
+        long nanos = history.timeAt(index);
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                Math.floorMod(nanos, 1_000_000_000L)), ZoneId.systemDefault());
+    }
+
+    public TransactionType getType() { return history.typeAt(index); }
+    public long getAmount() { return history.amountAt(index); }
+    public long getBalanceAfter() { return history.balanceAt(index); }
+    public long getReference() { return history.referenceAt(index); }
+
+    public String getDescription() {
+        long ref = getReference();
+        String desc = history.descriptionAt(index);
+        return ref == 0 ? desc : desc + " (ref T" + ref + ")";
+    }
+
+    public String toTableString() {
+        return String.format("%-22s | %-8s | %10s | %12s | %s",
+                getTimestamp().toString(), getType(), Money.format(getAmount()), Money.format(getBalanceAfter()), getDescription());
+    }
+
+    @Override
+    public String toString() {
+        return getTimestamp() + " | " + getType() + " | " + Money.format(getAmount()) + " | balance: " + Money.format(getBalanceAfter()) + " | " + getDescription();
+    }
+}
+
+// Thrown when a withdrawal or outgoing transfer would breach the account's
+// floor. Rejections are routine (a fifth of withdrawals under load), so
+// accounts throw preallocated instances created without a stack trace or
+// suppression list: throwing one costs no allocation and no stack walk, and
+// the reason and limit say why without parsing the message. Run with
+// -Dbank.rejectionStackTraces=true to get a fresh exception with a stack
+// trace for every rejection while debugging.
+class InsufficientFundsException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    static volatile boolean stackTraces = Boolean.getBoolean("bank.rejectionStackTraces");
+
+    private final RejectionReason reason;
+    private final long limit;
+
+    public InsufficientFundsException(String msg) {
+        super(msg);
+        this.reason = RejectionReason.INSUFFICIENT_FUNDS;
+        this.limit = 0;
+    }
+
+    private InsufficientFundsException(String msg, RejectionReason reason, long limit, boolean writableStackTrace) {
+        super(msg, null, writableStackTrace, writableStackTrace);
+        this.reason = reason;
+        this.limit = limit;
+    }
+
+    // A shareable instance: it has no stack trace and ignores addSuppressed.
+    static InsufficientFundsException stackless(String msg, RejectionReason reason, long limit) {
+        return new InsufficientFundsException(msg, reason, limit, false);
+    }
+
+    // A fresh instance with a stack trace, for acc's floor.
+    static InsufficientFundsException of(Account acc) {
+        return new InsufficientFundsException(acc.insufficientFundsMessage(), acc.rejectionReason(), acc.withdrawalFloor(), true);
+    }
+
+    public RejectionReason getReason() { return reason; }
+
+    // The floor the operation would have breached, in minor units: 0, the
+    // savings minimum balance, or minus the overdraft limit.
+    public long getLimit() { return limit; }
+}
+
+// Why a withdrawal or outgoing transfer was refused.
+enum RejectionReason {
+    INSUFFICIENT_FUNDS,   // the balance would go negative
+    MIN_BALANCE,          // a savings account would drop below MIN_BALANCE
+    OVERDRAFT_LIMIT       // a current account would exceed its overdraft limit
+}
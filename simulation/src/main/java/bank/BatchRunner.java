@@ -0,0 +1,285 @@
+/*
+ * BatchRunner.java
+ * Non-interactive driver: executes a stream of commands, one per line, against
+ * the registered accounts and writes one result line per command.
+ *
+ * Commands (fields separated by spaces or tabs; blank lines and lines starting
+ * with # are skipped):
+ *   create S <number> <initial> <rate%> <holder name...>
+ *   create C <number> <initial> <overdraftLimit> <overdraftFee> <holder name...>
+ *   deposit <number> <amount>
+ *   withdraw <number> <amount>
+ *   transfer <from> <to> <amount>
+ *   statement <number> [<offset> <limit>]
+ *   statement <number> <from> <to> ISO dates (to inclusive) or date-times
+ *                                  (to exclusive), in the system zone
+ *   balance <number> <at>          balance at an ISO date-time, or at the end of
+ *                                  an ISO date, in the system zone
+ *   list
+ *   find <holder name...>          accounts of that holder (ignoring case), or with
+ *                                  a trailing * up to FIND_LIMIT whose holder
+ *                                  starts with it
+ *   top <n>                        the n largest balances, largest first
+ *   balances <min> <max> [S|C]     up to FIND_LIMIT accounts (savings or current
+ *                                  only) with min <= balance <= max, largest first
+ *   monthend [accrued]             posts monthly interest to all savings accounts,
+ *                                  or the interest they accrued daily
+ *   clock <at>                     sets the simulated clock (-Dbank.clock=simulated,
+ *                                  see BankClock) to an ISO date or date-time
+ *
+ * Results:
+ *   OK <number> <balance>          create, deposit, withdraw, transfer (source),
+ *                                  balance
+ *   OK clock <at>                  clock
+ *   ERR <line> <message>           the command failed, for whatever reason; the
+ *                                  run carries on
+ * statement, list, find, top, balances and monthend print the same text as the
+ * interactive menu (find, top and balances print list's lines).
+ *
+ * Lines are tokenized in place and amounts parsed straight from the line, so
+ * a command costs the line String, its account-number key and the output
+ * line, and nothing else.
+ */
+
+package bank;
+
+import java.io.*;
+import java.util.*;
+
+final class BatchRunner {
+    // Most accounts a prefix find prints.
+    static final int FIND_LIMIT = 1000;
+
+    private final PrintStream out;
+    private final StringBuilder result = new StringBuilder(64);
+    private String line;
+    private int pos;
+    private int tokenStart;
+    private int tokenEnd;
+    private long lineNumber;
+    private long executed;
+    private long failed;
+
+    BatchRunner(PrintStream out) {
+        this.out = out;
+    }
+
+    long executed() { return executed; }
+
+    long failed() { return failed; }
+
+    void run(BufferedReader in) throws IOException {
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            pos = 0;
+            if (!next() || line.charAt(tokenStart) == '#') continue;
+            executed++;
+            try {
+                execute();
+            } catch (IllegalArgumentException | ArithmeticException | InsufficientFundsException e) {
+                // NumberFormatException is an IllegalArgumentException
+                fail(e.getMessage());
+            } catch (RuntimeException e) {
+                // Anything else (a failed journal write, say) fails this
+                // command only.
+                fail(String.valueOf(e));
+            }
+        }
+    }
+
+    private void fail(String message) {
+        failed++;
+        result.setLength(0);
+        result.append("ERR ").append(lineNumber).append(' ').append(message);
+        out.append(result).println();
+    }
+
+    private void execute() throws InsufficientFundsException {
+        if (is("deposit")) {
+            Account acc = account();
+            acc.deposit(amount());
+            ok(acc);
+        } else if (is("withdraw")) {
+            Account acc = account();
+            acc.withdraw(amount());
+            ok(acc);
+        } else if (is("transfer")) {
+            Account from = account();
+            Account to = account();
+            Account.transfer(from, to, amount());
+            ok(from);
+        } else if (is("create")) {
+            create();
+        } else if (is("statement")) {
+            statement();
+        } else if (is("balance")) {
+            balance();
+        } else if (is("monthend")) {
+            boolean accrued = next();
+            if (accrued && !is("accrued")) {
+                throw new IllegalArgumentException("Unknown monthend option: " + line.substring(tokenStart, tokenEnd));
+            }
+            BankSimulation.monthEnd(out, accrued);
+        } else if (is("clock")) {
+            clock();
+        } else if (is("find")) {
+            find();
+        } else if (is("top")) {
+            require("account count");
+            int n = Integer.parseInt(line.substring(tokenStart, tokenEnd));
+            if (n < 0) throw new IllegalArgumentException("Account count cannot be negative.");
+            for (Account acc : BankSimulation.topBalances(n)) out.println(acc.getAccountInfo());
+        } else if (is("balances")) {
+            balances();
+        } else if (is("list")) {
+            for (Account acc : BankSimulation.allAccounts()) out.println(acc.getAccountInfo());
+        } else {
+            throw new IllegalArgumentException("Unknown command: " + line.substring(tokenStart, tokenEnd));
+        }
+    }
+
+    private void create() {
+        require("account type");
+        char type = Character.toUpperCase(line.charAt(tokenStart));
+        if (tokenEnd - tokenStart != 1 || (type != 'S' && type != 'C')) {
+            throw new IllegalArgumentException("Unknown account type. Use S or C.");
+        }
+        String number = token("account number");
+        long initial = amount();
+        Account acc;
+        if (type == 'S') {
+            require("interest rate");
+            long rate = Money.parseRate(line, tokenStart, tokenEnd);
+            acc = new SavingsAccount(number, holder(), initial, rate);
+        } else {
+            long limit = amount();
+            long fee = amount();
+            acc = new CurrentAccount(number, holder(), initial, limit, fee);
+        }
+        if (!BankSimulation.openAccount(acc)) throw new IllegalArgumentException("Account number already exists: " + number);
+        ok(acc);
+    }
+
+    // A whole statement, a page of it, or a date range found by binary
+    // search (see Account.indexAt).
+    private void statement() {
+        Account acc = account();
+        if (!next()) {
+            acc.printStatement(out);
+            return;
+        }
+        String first = line.substring(tokenStart, tokenEnd);
+        String second = token("statement range end");
+        if (first.indexOf('-', 1) > 0) {
+            acc.printStatement(out, acc.indexAt(EpochDays.parseBound(first, false)),
+                    acc.indexAt(EpochDays.parseBound(second, true)));
+        } else {
+            int offset = Integer.parseInt(first);
+            int limit = Integer.parseInt(second);
+            if (offset < 0 || limit < 0) throw new IllegalArgumentException("Offset and limit cannot be negative.");
+            acc.printStatement(out, offset, (int) Math.min((long) offset + limit, Integer.MAX_VALUE));
+        }
+    }
+
+    // Point-in-time balance (see Account.balanceAt).
+    private void balance() {
+        Account acc = account();
+        long balance = acc.balanceAt(EpochDays.parseInstant(token("balance time")));
+        if (balance == Account.NO_BALANCE) throw new IllegalArgumentException("Account not open yet: " + acc.getAccountNumber());
+        ok(acc, balance);
+    }
+
+    // Looks holders up in the registry's HolderIndex rather than scanning it.
+    private void find() {
+        String name = holder();
+        List<Account> found = name.endsWith("*")
+                ? BankSimulation.findByHolderPrefix(name.substring(0, name.length() - 1), FIND_LIMIT)
+                : BankSimulation.findByHolder(name);
+        for (Account acc : found) out.println(acc.getAccountInfo());
+    }
+
+    // Reads the registry's BalanceIndex when -Dbank.balanceIndex is set, and
+    // scans the registry otherwise.
+    private void balances() {
+        long min = amount();
+        long max = amount();
+        Class<? extends Account> kind = Account.class;
+        if (next()) {
+            char type = Character.toUpperCase(line.charAt(tokenStart));
+            if (tokenEnd - tokenStart != 1 || (type != 'S' && type != 'C')) {
+                throw new IllegalArgumentException("Unknown account type. Use S or C.");
+            }
+            kind = type == 'S' ? SavingsAccount.class : CurrentAccount.class;
+        }
+        for (Account acc : BankSimulation.balancesBetween(min, max, kind, FIND_LIMIT)) out.println(acc.getAccountInfo());
+    }
+
+    // Moves the simulated clock, so a replayed command file stamps its
+    // entries with the same times on every run.
+    private void clock() {
+        String at = token("clock time");
+        BankClock clock = BankClock.current();
+        if (!(clock instanceof BankClock.Simulated)) throw new IllegalArgumentException("clock needs -Dbank.clock=simulated");
+        ((BankClock.Simulated) clock).set(EpochDays.parseBound(at, false));
+        out.append("OK clock ").append(at).println();
+    }
+
+    private void ok(Account acc) {
+        ok(acc, acc.getBalance());
+    }
+
+    private void ok(Account acc, long balance) {
+        result.setLength(0);
+        result.append("OK ").append(acc.getAccountNumber()).append(' ');
+        Money.appendTo(result, balance);
+        out.append(result).println();
+    }
+
+    private Account account() {
+        String number = token("account number");
+        Account acc = BankSimulation.findAccount(number);
+        if (acc == null) throw new IllegalArgumentException("Account not found: " + number);
+        return acc;
+    }
+
+    private long amount() {
+        require("amount");
+        return Money.parse(line, tokenStart, tokenEnd);
+    }
+
+    private String token(String what) {
+        require(what);
+        return line.substring(tokenStart, tokenEnd);
+    }
+
+    // The rest of the line, for holder names that contain spaces.
+    private String holder() {
+        require("account holder name");
+        int end = line.length();
+        while (end > tokenStart && Character.isWhitespace(line.charAt(end - 1))) end--;
+        pos = end;
+        return line.substring(tokenStart, end);
+    }
+
+    private void require(String what) {
+        if (!next()) throw new IllegalArgumentException("Missing " + what);
+    }
+
+    // Whether the current token is the given keyword.
+    private boolean is(String keyword) {
+        return tokenEnd - tokenStart == keyword.length() && line.regionMatches(true, tokenStart, keyword, 0, keyword.length());
+    }
+
+    // Advances to the next whitespace-separated token; false at end of line.
+    private boolean next() {
+        int n = line.length();
+        int i = pos;
+        while (i < n && Character.isWhitespace(line.charAt(i))) i++;
+        if (i == n) return false;
+        tokenStart = i;
+        while (i < n && !Character.isWhitespace(line.charAt(i))) i++;
+        tokenEnd = i;
+        pos = i;
+        return true;
+    }
+}
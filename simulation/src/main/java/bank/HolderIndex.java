@@ -0,0 +1,83 @@
+/*
+ * HolderIndex.java
+ * Secondary index from account holder name to accounts, for exact and
+ * prefix lookups without scanning the registry.
+ *
+ * The index is a ConcurrentSkipListMap ordered case-insensitively, keyed by
+ * the holder String the account already holds (no copy per account) and
+ * mapping to the holder's accounts. All names starting with a prefix sit next
+ * to each other in that order, so a prefix lookup is one O(log n) descent
+ * followed by a walk over just the matches. Lookups never block and run
+ * concurrently with additions.
+ *
+ * Holder names never change, so accounts are only ever added: when they are
+ * opened, and in bulk once the registry has been restored from the journal
+ * (see BankSimulation.openJournal).
+ */
+
+package bank;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+final class HolderIndex {
+    private final ConcurrentSkipListMap<String, Holdings> byHolder =
+            new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    void add(Account acc) {
+        byHolder.computeIfAbsent(acc.getAccountHolder(), h -> new Holdings()).add(acc);
+    }
+
+    void addAll(Collection<Account> accounts) {
+        for (Account acc : accounts) add(acc);
+    }
+
+    // Accounts whose holder is name, ignoring case, in the order they were
+    // added. A read-only view of the accounts added so far; later additions
+    // do not show up in it.
+    List<Account> find(String name) {
+        Holdings holdings = byHolder.get(name);
+        return holdings == null ? Collections.emptyList() : holdings.view();
+    }
+
+    // Up to limit accounts whose holder starts with prefix, ignoring case,
+    // ordered by holder name.
+    List<Account> withPrefix(String prefix, int limit) {
+        List<Account> out = new ArrayList<>(Math.min(limit, 64));
+        for (Map.Entry<String, Holdings> e : byHolder.tailMap(prefix).entrySet()) {
+            if (!e.getKey().regionMatches(true, 0, prefix, 0, prefix.length())) break;
+            Holdings holdings = e.getValue();
+            int n = holdings.size;
+            Account[] accs = holdings.accounts;
+            for (int i = 0; i < n; i++) {
+                if (out.size() == limit) return out;
+                out.add(accs[i]);
+            }
+        }
+        return out;
+    }
+
+    // One holder's accounts: an array that doubles when full, so adding is
+    // amortized O(1) however many accounts a holder has (copying the whole
+    // array on every add made building the index quadratic per holder).
+    // Writers append under the lock; readers take size and then accounts
+    // without it. A slot is written before size covers it and never changes
+    // afterwards, and a grown array is published before size passes the old
+    // length, so every slot below the size a reader sees is filled.
+    private static final class Holdings {
+        private volatile Account[] accounts = new Account[1];
+        private volatile int size;
+
+        synchronized void add(Account acc) {
+            Account[] accs = accounts;
+            if (size == accs.length) accounts = accs = Arrays.copyOf(accs, size * 2);
+            accs[size] = acc;
+            size++;
+        }
+
+        List<Account> view() {
+            int n = size;
+            return Collections.unmodifiableList(Arrays.asList(accounts).subList(0, n));
+        }
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * HttpApi.java
+ * HTTP/JSON front end for the account operations, on the JDK's built-in
+ * com.sun.net.httpserver. Operations go through the same registry as the
+ * console and BankServer (BankSimulation).
+ *
+ * Routes (amounts and rates are JSON numbers or numeric strings):
+ *   POST /accounts                      create; body {"type":"savings",
+ *                                       "number","holder","initialBalance",
+ *                                       "interestRate"} or {"type":"current",
+ *                                       ..., "overdraftLimit","overdraftFee"}
+ *   GET  /accounts?holder=Alice&limit=100
+ *                                       accounts of that holder, ignoring
+ *                                       case; limit is capped at MAX_PAGE
+ *   GET  /accounts?holderPrefix=Al&limit=100
+ *                                       accounts whose holder starts with
+ *                                       that, by holder name; limit is
+ *                                       capped at MAX_PAGE
+ *   GET  /accounts?top=1000             the largest balances, largest first
+ *                                       (at most MAX_PAGE)
+ *   GET  /accounts?maxBalance=-0.01&type=current&limit=100
+ *                                       accounts with min <= balance <= max,
+ *                                       largest first; either bound and the
+ *                                       type (savings or current) may be
+ *                                       left out; limit is capped at MAX_PAGE
+ *   GET  /accounts/{number}             account info
+ *   POST /accounts/{number}/deposit     body {"amount": 12.50}
+ *   POST /accounts/{number}/withdraw    body {"amount": 12.50}
+ *   GET  /accounts/{number}/statement?offset=0&limit=100
+ *                                       entries offset .. offset+limit-1,
+ *                                       oldest first; limit is capped at
+ *                                       MAX_PAGE and "next" is the offset of
+ *                                       the following page, or null
+ *   GET  /accounts/{number}/statement?from=2026-03-01&to=2026-03-31
+ *                                       entries stamped in that range (ISO
+ *                                       dates, to inclusive, or date-times,
+ *                                       to exclusive; system zone), paged
+ *                                       the same way; either bound may be
+ *                                       left out
+ *   GET  /accounts/{number}/balance?at=2026-03-31T23:59
+ *                                       balance at an ISO date-time, or at
+ *                                       the end of an ISO date (system zone)
+ *
+ * Errors are {"error": message} with 400 (invalid request, or a point-in-time
+ * balance of a lock-free account), 404 (no such account or route), 405, 409
+ * (account number taken), 422 (insufficient funds, with "reason":
+ * INSUFFICIENT_FUNDS, MIN_BALANCE or OVERDRAFT_LIMIT) or 500.
+ *
+ * Every exchange runs on its own thread and simply blocks while its operation
+ * waits for the journal. On Java 21+ those are virtual threads, so tens of
+ * thousands of concurrent requests cost no platform threads; older JDKs fall
+ * back to a cached thread pool. Responses are written with JsonWriter
+ * straight into the response stream. A response that fits in the writer's
+ * buffer is sent with a Content-Length, anything longer (a big statement
+ * page) is streamed chunked as it is written.
+ */
+
+package bank;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+final class HttpApi implements Closeable {
+    static final int DEFAULT_PAGE = 100;
+    static final int MAX_PAGE = 1000;
+    private static final int MAX_BODY = 16 * 1024;
+    private static final int BACKLOG = 16384;
+    private static final String PREFIX = "/accounts";
+
+    static {
+        // The JDK server leaves Nagle on by default, which holds small
+        // responses back for the client's delayed ACK (about 40 ms each).
+        // Read once, when the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    HttpApi(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, BACKLOG);
+        ExecutorService virtual = virtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "bank-http-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext(PREFIX, this::handle);
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Waits for exchanges already running, so the journal is not closed
+    // under them.
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() when the running JDK has it
+    // (found reflectively, since the code still compiles for Java 8), else null.
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            route(exchange);
+        } catch (HttpError e) {
+            error(exchange, e.status, e.getMessage());
+        } catch (InsufficientFundsException e) {
+            error(exchange, 422, e.getMessage(), e.getReason());
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            error(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            error(exchange, 500, String.valueOf(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException, InsufficientFundsException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.length() <= PREFIX.length() + 1) {
+            if (!path.equals(PREFIX) && !path.equals(PREFIX + "/")) throw new HttpError(404, "No such route: " + path);
+            if (method.equals("GET")) {
+                findAccounts(exchange);
+                return;
+            }
+            require(method, "POST");
+            create(exchange);
+            return;
+        }
+        if (path.charAt(PREFIX.length()) != '/') throw new HttpError(404, "No such route: " + path);
+        int slash = path.indexOf('/', PREFIX.length() + 1);
+        String number = path.substring(PREFIX.length() + 1, slash < 0 ? path.length() : slash);
+        String action = slash < 0 ? "" : path.substring(slash + 1);
+        Account acc = BankSimulation.findAccount(number);
+        if (acc == null) throw new HttpError(404, "Account not found: " + number);
+        switch (action) {
+            case "":
+                require(method, "GET");
+                respondInfo(exchange, 200, acc);
+                break;
+            case "deposit":
+                require(method, "POST");
+                acc.deposit(amount(readBody(exchange)));
+                respondBalance(exchange, acc);
+                break;
+            case "withdraw":
+                require(method, "POST");
+                acc.withdraw(amount(readBody(exchange)));
+                respondBalance(exchange, acc);
+                break;
+            case "statement":
+                require(method, "GET");
+                statement(exchange, acc);
+                break;
+            case "balance":
+                require(method, "GET");
+                balanceAt(exchange, acc);
+                break;
+            default:
+                throw new HttpError(404, "No such route: " + path);
+        }
+    }
+
+    private static void create(HttpExchange exchange) throws IOException {
+        Map<String, String> body = readBody(exchange);
+        String type = field(body, "type");
+        String number = field(body, "number");
+        String holder = field(body, "holder");
+        if (number.isEmpty()) throw new IllegalArgumentException("Account number cannot be empty.");
+        long initial = Money.parse(field(body, "initialBalance"));
+        Account acc;
+        if (type.equalsIgnoreCase("savings") || type.equalsIgnoreCase("S")) {
+            acc = new SavingsAccount(number, holder, initial, Money.parseRate(field(body, "interestRate")));
+        } else if (type.equalsIgnoreCase("current") || type.equalsIgnoreCase("C")) {
+            acc = new CurrentAccount(number, holder, initial,
+                    Money.parse(field(body, "overdraftLimit")), Money.parse(field(body, "overdraftFee")));
+        } else {
+            throw new IllegalArgumentException("Unknown account type. Use savings or current.");
+        }
+        if (!BankSimulation.openAccount(acc)) throw new HttpError(409, "Account number already exists: " + number);
+        respondInfo(exchange, 201, acc);
+    }
+
+    // Holder lookups go through the registry's HolderIndex; balance lookups
+    // through its BalanceIndex when -Dbank.balanceIndex is set, and scan the
+    // registry otherwise.
+    private static void findAccounts(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String holder = queryParam(query, "holder");
+        String prefix = queryParam(query, "holderPrefix");
+        String min = queryParam(query, "minBalance");
+        String max = queryParam(query, "maxBalance");
+        int limit = Math.min(queryInt(query, "limit", DEFAULT_PAGE), MAX_PAGE);
+        if (limit < 0) throw new IllegalArgumentException("limit cannot be negative.");
+        List<Account> found;
+        if (holder != null) {
+            found = BankSimulation.findByHolder(holder);
+            if (found.size() > limit) found = found.subList(0, limit);
+        } else if (prefix != null) {
+            found = BankSimulation.findByHolderPrefix(prefix, limit);
+        } else if (queryParam(query, "top") != null) {
+            int n = queryInt(query, "top", 0);
+            if (n < 0) throw new IllegalArgumentException("top cannot be negative.");
+            found = BankSimulation.topBalances(Math.min(n, MAX_PAGE));
+        } else if (min != null || max != null) {
+            String type = queryParam(query, "type");
+            Class<? extends Account> kind;
+            if (type == null) kind = Account.class;
+            else if (type.equalsIgnoreCase("savings") || type.equalsIgnoreCase("S")) kind = SavingsAccount.class;
+            else if (type.equalsIgnoreCase("current") || type.equalsIgnoreCase("C")) kind = CurrentAccount.class;
+            else throw new IllegalArgumentException("Unknown account type. Use savings or current.");
+            found = BankSimulation.balancesBetween(min == null ? Long.MIN_VALUE : Money.parse(min),
+                    max == null ? Long.MAX_VALUE : Money.parse(max), kind, limit);
+        } else {
+            throw new IllegalArgumentException("Missing field: holder, holderPrefix, top or minBalance/maxBalance");
+        }
+        Response out = new Response(exchange, 200);
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject().name("accounts").beginArray();
+        for (Account acc : found) {
+            json.beginObject()
+                .name("number").value(acc.getAccountNumber())
+                .name("holder").value(acc.getAccountHolder())
+                .name("balance").money(acc.getBalance())
+                .endObject();
+        }
+        json.endArray().endObject();
+        out.send(json);
+    }
+
+    private static void respondInfo(HttpExchange exchange, int status, Account acc) throws IOException {
+        Response out = new Response(exchange, status);
+        JsonWriter json = new JsonWriter(out, 1024);
+        json.beginObject()
+            .name("number").value(acc.getAccountNumber())
+            .name("holder").value(acc.getAccountHolder());
+        if (acc instanceof SavingsAccount) {
+            SavingsAccount s = (SavingsAccount) acc;
+            json.name("type").value("savings")
+                .name("balance").money(s.getBalance())
+                .name("interestRate").rate(s.getAnnualInterestRate())
+                .name("accruedInterest").money(s.getAccruedInterest());
+        } else if (acc instanceof CurrentAccount) {
+            CurrentAccount c = (CurrentAccount) acc;
+            json.name("type").value("current")
+                .name("balance").money(c.getBalance())
+                .name("overdraftLimit").money(c.getOverdraftLimit())
+                .name("overdraftFee").money(c.getOverdraftFee());
+        } else {
+            json.name("balance").money(acc.getBalance());
+        }
+        json.name("transactions").value(acc.getTransactionCount())
+            .endObject();
+        out.send(json);
+    }
+
+    private static void respondBalance(HttpExchange exchange, Account acc) throws IOException {
+        Response out = new Response(exchange, 200);
+        JsonWriter json = new JsonWriter(out, 256);
+        json.beginObject()
+            .name("number").value(acc.getAccountNumber())
+            .name("balance").money(acc.getBalance())
+            .endObject();
+        out.send(json);
+    }
+
+    // Point-in-time balance (see Account.balanceAt).
+    private static void balanceAt(HttpExchange exchange, Account acc) throws IOException {
+        String at = queryParam(exchange.getRequestURI().getRawQuery(), "at");
+        if (at == null) throw new IllegalArgumentException("Missing field: at");
+        long epochNanos = EpochDays.parseInstant(at);
+        long balance = acc.balanceAt(epochNanos);
+        if (balance == Account.NO_BALANCE) throw new HttpError(404, "Account not open yet at " + at);
+        Response out = new Response(exchange, 200);
+        JsonWriter json = new JsonWriter(out, 256);
+        json.beginObject()
+            .name("number").value(acc.getAccountNumber())
+            .name("at").timestamp(epochNanos)
+            .name("balance").money(balance)
+            .endObject();
+        out.send(json);
+    }
+
+    private static void statement(HttpExchange exchange, Account acc) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        int offset = queryInt(query, "offset", 0);
+        int limit = Math.min(queryInt(query, "limit", DEFAULT_PAGE), MAX_PAGE);
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("offset and limit cannot be negative.");
+        String fromDate = queryParam(query, "from");
+        String toDate = queryParam(query, "to");
+        long balance = acc.getBalance();
+        int total = acc.getTransactionCount();
+        // Date bounds become index bounds by binary search, so a page deep in
+        // a long history costs the same as the first one.
+        int end = toDate == null ? total : Math.min(acc.indexAt(EpochDays.parseBound(toDate, true)), total);
+        int start = fromDate == null ? 0 : acc.indexAt(EpochDays.parseBound(fromDate, false));
+        int from = Math.min(Math.max(offset, start), end);
+        int to = (int) Math.min((long) from + limit, end);
+        TransactionHistory h = acc.entries(from, to);
+
+        Response out = new Response(exchange, 200);
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject()
+            .name("number").value(acc.getAccountNumber())
+            .name("balance").money(balance)
+            .name("total").value(total)
+            .name("offset").value(from)
+            .name("entries").beginArray();
+        for (int i = h.firstRetained(); i < h.size(); i++) {
+            json.beginObject()
+                .name("index").value(i)
+                .name("time").timestamp(h.timeAt(i))
+                .name("type").value(h.typeAt(i).name())
+                .name("amount").money(h.amountAt(i))
+                .name("balanceAfter").money(h.balanceAt(i))
+                .name("description").value(h.descriptionAt(i));
+            long ref = h.referenceAt(i);
+            if (ref != 0) json.name("reference").value(ref);
+            json.endObject();
+        }
+        json.endArray().name("next");
+        if (to < end) json.value(to);
+        else json.nullValue();
+        json.endObject();
+        out.send(json);
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) {
+        error(exchange, status, message, null);
+    }
+
+    private static void error(HttpExchange exchange, int status, String message, RejectionReason reason) {
+        try {
+            Response out = new Response(exchange, status);
+            JsonWriter json = new JsonWriter(out, 512);
+            json.beginObject().name("error").value(message == null ? "" : message);
+            if (reason != null) json.name("reason").value(reason.name());
+            json.endObject();
+            out.send(json);
+        } catch (IOException | RuntimeException ignored) {
+            // the response was already under way, or the client has gone
+        }
+    }
+
+    private static void require(String method, String expected) {
+        if (!method.equals(expected)) throw new HttpError(405, "Use " + expected);
+    }
+
+    private static long amount(Map<String, String> body) {
+        return Money.parse(field(body, "amount"));
+    }
+
+    private static String field(Map<String, String> body, String name) {
+        String value = body.get(name);
+        if (value == null) throw new IllegalArgumentException("Missing field: " + name);
+        return value;
+    }
+
+    private static int queryInt(String query, String name, int fallback) {
+        String value = queryParam(query, name);
+        if (value == null) return fallback;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + name);
+        }
+    }
+
+    // The decoded value of a query parameter, or null.
+    private static String queryParam(String query, String name) {
+        if (query == null) return null;
+        for (int start = 0; start < query.length(); ) {
+            int amp = query.indexOf('&', start);
+            int end = amp < 0 ? query.length() : amp;
+            int eq = query.indexOf('=', start);
+            if (eq > start && eq < end && query.regionMatches(start, name, 0, name.length()) && eq - start == name.length()) {
+                try {
+                    return URLDecoder.decode(query.substring(eq + 1, end), "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        byte[] chunk = new byte[1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                bytes.write(chunk, 0, n);
+                if (bytes.size() > MAX_BODY) throw new IllegalArgumentException("Request body too large.");
+            }
+        }
+        return parseObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    // Parses a flat JSON object whose values are strings, numbers, booleans
+    // or null. Numbers and literals are kept as their source text.
+    static Map<String, String> parseObject(String s) {
+        Map<String, String> fields = new HashMap<>();
+        int[] pos = { skipSpace(s, 0) };
+        expect(s, pos, '{');
+        if (peek(s, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String name = parseString(s, pos);
+                expect(s, pos, ':');
+                char c = peek(s, pos);
+                String value;
+                if (c == '"') {
+                    value = parseString(s, pos);
+                } else {
+                    int start = pos[0];
+                    while (pos[0] < s.length() && ",} \t\r\n".indexOf(s.charAt(pos[0])) < 0) pos[0]++;
+                    value = s.substring(start, pos[0]);
+                    if (value.isEmpty() || c == '{' || c == '[') throw new IllegalArgumentException("Malformed JSON: unsupported value for " + name);
+                    if (value.equals("null")) value = null;
+                }
+                if (value != null) fields.put(name, value);
+                char sep = peek(s, pos);
+                pos[0]++;
+                if (sep == '}') break;
+                if (sep != ',') throw new IllegalArgumentException("Malformed JSON: expected , or }");
+            }
+        }
+        if (skipSpace(s, pos[0]) != s.length()) throw new IllegalArgumentException("Malformed JSON: trailing data");
+        return fields;
+    }
+
+    private static String parseString(String s, int[] pos) {
+        expect(s, pos, '"');
+        StringBuilder sb = null;
+        int start = pos[0];
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                pos[0] = i + 1;
+                return sb == null ? s.substring(start, i) : sb.toString();
+            }
+            if (c == '\\') {
+                if (sb == null) sb = new StringBuilder().append(s, start, i);
+                if (++i >= s.length()) break;
+                char e = s.charAt(i);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (i + 4 >= s.length()) throw new IllegalArgumentException("Malformed JSON: bad escape");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException("Malformed JSON: bad escape");
+                        }
+                        i += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Malformed JSON: unterminated string");
+    }
+
+    private static void expect(String s, int[] pos, char c) {
+        if (peek(s, pos) != c) throw new IllegalArgumentException("Malformed JSON: expected " + c);
+        pos[0]++;
+    }
+
+    // The next non-space character (moving past the spaces), or 0 at the end.
+    private static char peek(String s, int[] pos) {
+        pos[0] = skipSpace(s, pos[0]);
+        return pos[0] < s.length() ? s.charAt(pos[0]) : 0;
+    }
+
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    // Response body that sends the headers on first use: with the exact
+    // length when the whole document is still in the writer's buffer at
+    // send(), chunked when the writer had to drain part of it earlier.
+    private static final class Response extends OutputStream {
+        private final HttpExchange exchange;
+        private final int status;
+        private OutputStream body;
+        private long length;
+
+        Response(HttpExchange exchange, int status) {
+            this.exchange = exchange;
+            this.status = status;
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        }
+
+        void send(JsonWriter json) throws IOException {
+            if (!json.drained()) length = json.buffered();
+            json.close();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            start();
+            body.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            start();
+            body.close();
+        }
+
+        private void start() throws IOException {
+            if (body != null) return;
+            exchange.sendResponseHeaders(status, length);
+            body = exchange.getResponseBody();
+        }
+    }
+
+    private static final class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * InterestAccrual.java
+ * Daily interest accrual for a savings account, kept up to date incrementally.
+ *
+ * Interest accrues every day on that day's end-of-day balance, at the annual
+ * rate / 365, and is only posted at the end of the period. Rather than
+ * rescanning the history at posting time, the accrual is told about every
+ * history entry as it is recorded and keeps three numbers:
+ *
+ *   balance       balance after the latest entry
+ *   day           the day of the latest entry (epoch day, system time zone)
+ *   balanceDays   sum of end-of-day balances over the days of the period
+ *                 before that day
+ *
+ * A balance is the end-of-day balance for every day from the day it was
+ * reached up to the day before the next change. So when an entry arrives on a
+ * later day, the old balance is added once per day in between. Posting is
+ * then O(1) per account: balanceDays plus today's carry, times the rate.
+ *
+ * Any INTEREST entry (monthly or accrued) closes the period: balanceDays
+ * starts again from zero on the day it is posted. Entries replayed from the
+ * journal go through the same path, so replay rebuilds the same state.
+ *
+ * Not thread-safe: SavingsAccount updates it under the account lock.
+ */
+
+package bank;
+
+import java.math.*;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+
+final class InterestAccrual {
+    static final long DAYS_PER_YEAR = 365;
+    static final long NO_DAY = Long.MIN_VALUE;
+    // balanceDays * annualRate / ACCRUAL_DIVISOR is the accrued interest.
+    private static final long ACCRUAL_DIVISOR = 100 * Money.RATE_PER_PERCENT * DAYS_PER_YEAR;
+
+    private long balance;
+    private long day = NO_DAY;
+    private long balanceDays;
+
+    void record(long epochNanos, TransactionType type, long amount) {
+        long d = EpochDays.of(epochNanos);
+        if (type == TransactionType.OPEN || day == NO_DAY) {
+            day = d;
+            balanceDays = 0;
+        } else {
+            accrueTo(d);
+            if (type == TransactionType.INTEREST) balanceDays = 0;
+        }
+        balance = type.applyTo(balance, amount);
+    }
+
+    // Interest accrued on end-of-day balances for the days before today.
+    long accrued(long today, long annualRate, RoundingMode rounding) {
+        long total = balanceDays;
+        if (day != NO_DAY && today > day) total = Math.addExact(total, Math.multiplyExact(balance, today - day));
+        return Money.multiply(total, annualRate, ACCRUAL_DIVISOR, rounding);
+    }
+
+    long balance() { return balance; }
+    long day() { return day; }
+    long balanceDays() { return balanceDays; }
+
+    // Used when restoring from a snapshot, which holds no history entries.
+    void restore(long balance, long day, long balanceDays) {
+        this.balance = balance;
+        this.day = day;
+        this.balanceDays = balanceDays;
+    }
+
+    private void accrueTo(long d) {
+        // Entries of racing lock-free operations can arrive slightly out of
+        // order; an earlier day than the current one adds nothing.
+        if (d > day) {
+            balanceDays = Math.addExact(balanceDays, Math.multiplyExact(balance, d - day));
+            day = d;
+        }
+    }
+}
+
+// Epoch day of a timestamp in the system time zone. Consecutive timestamps
+// nearly always fall on the same day, so the bounds of the last day looked up
+// are cached and the time-zone rules are only consulted when a timestamp
+// falls outside them.
+final class EpochDays {
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static volatile long[] last = { 0, 0, 0 }; // { startNanos, endNanos, epochDay }
+
+    private EpochDays() { }
+
+    static long of(long epochNanos) {
+        long[] c = last;
+        if (epochNanos >= c[0] && epochNanos < c[1]) return c[2];
+        LocalDate date = Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                Math.floorMod(epochNanos, 1_000_000_000L)).atZone(ZONE).toLocalDate();
+        long start = date.atStartOfDay(ZONE).toEpochSecond() * 1_000_000_000L;
+        long end = date.plusDays(1).atStartOfDay(ZONE).toEpochSecond() * 1_000_000_000L;
+        last = new long[] { start, end, date.toEpochDay() };
+        return date.toEpochDay();
+    }
+
+    // Today by BankClock, so reported accruals agree with posted ones (which
+    // are stamped by it) under the cached and simulated clocks too.
+    static long today() {
+        return of(BankClock.current().epochNanos());
+    }
+
+    // Epoch nanoseconds for a statement bound in the system zone. An ISO
+    // date-time is taken as is; an ISO date means the start of that day, or
+    // with end set the start of the next one, so the date itself is included.
+    static long parseBound(String text, boolean end) {
+        try {
+            if (text.indexOf('T') >= 0) {
+                Instant instant = LocalDateTime.parse(text).atZone(ZONE).toInstant();
+                return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+            }
+            LocalDate date = LocalDate.parse(text);
+            return (end ? date.plusDays(1) : date).atStartOfDay(ZONE).toEpochSecond() * 1_000_000_000L;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + text);
+        }
+    }
+
+    // The instant a point-in-time balance is asked for: an ISO date-time as
+    // is, or the last nanosecond of an ISO date, so the whole day counts.
+    static long parseInstant(String text) {
+        return text.indexOf('T') >= 0 ? parseBound(text, false) : parseBound(text, true) - 1;
+    }
+
+    // The proleptic Gregorian date of epochDay without creating a LocalDate,
+    // packed as year << 9 | month << 5 | day (see year, month, day).
+    static long civil(long epochDay) {
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long doe = z - era * 146_097;
+        long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    static long year(long civil) { return civil >> 9; }
+    static int month(long civil) { return (int) (civil >> 5) & 15; }
+    static int day(long civil) { return (int) civil & 31; }
+}
@@ -0,0 +1,747 @@
+/*
+ * Journal.java
+ * Write-ahead journal for account mutations, with group commit, stored as
+ * fixed-size memory-mapped segment files.
+ *
+ * Every history entry an account records (deposit, withdrawal, fee, interest,
+ * transfer leg) is copied into the current mapped segment while the account
+ * lock is held, and the operation does not return to its caller until the
+ * journal has forced that entry to disk. One writer thread does the forcing:
+ * each force covers every record appended since the previous one, so many
+ * concurrent operations share the cost of a single msync. An optional batch
+ * window makes the writer wait a little longer to collect bigger batches.
+ *
+ * Segments live in one directory and are named after the sequence number of
+ * their first record. A record never spans two segments; when the current one
+ * is full a new one is created and mapped. A record's position is
+ * (segment index << 32 | offset), and each entry record stores the position
+ * of the same account's previous entry, so an account's history forms a
+ * chain through the journal. Every INDEX_STRIDE-th entry of each account is
+ * also kept in a small in-memory index, which lets statements read any range
+ * of an account's history by walking at most INDEX_STRIDE links back from the
+ * nearest indexed entry. Because of that, journaled accounts only keep their
+ * most recent entries on the heap (see TransactionHistory.trimTo). The index
+ * also keeps the time and balance of each indexed entry, so time lookups and
+ * point-in-time balances binary-search memory and read at most one stride.
+ *
+ * Record layout:  [int payloadLength][int crc32(payload)][payload]
+ *   CREATE payload: kind, seq, accountKind, accountNumber, holder, param1, param2
+ *   ENTRY payload:  kind, seq, accountNumber, historyIndex, prevPosition,
+ *                   epochNanos, type, amount, balanceAfter, reference, description
+ * Strings are written as a short length followed by UTF-8 bytes. A zero length
+ * marks the unused end of a segment.
+ *
+ * On startup open() loads the newest snapshot (see Snapshot), replays only the
+ * segments written since it into the registry and stops at the first torn or
+ * corrupt record (a crash in the middle of a write); appending resumes right
+ * there.
+ */
+
+package bank;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+final class Journal implements Closeable {
+    static final byte CREATE = 1;
+    static final byte ENTRY = 2;
+    static final byte SAVINGS = 'S';
+    static final byte CURRENT = 'C';
+    static final int DEFAULT_SEGMENT_BYTES = Integer.getInteger("bank.segmentBytes", 64 << 20);
+    static final int DEFAULT_HEAP_ENTRIES = Integer.getInteger("bank.heapHistory", 1024);
+    static final int INDEX_STRIDE = 64;
+    static final long NO_POSITION = -1;
+    private static final int HEADER = 8;
+    private static final int MAX_RECORD = 1 << 16;
+    private static final int SPINS = 200;
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int heapEntries;
+    private final long windowNanos;
+    private final Thread writer;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer scratch = ByteBuffer.allocate(MAX_RECORD);
+    private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+    private final ConcurrentMap<String, Trail> trails = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "journal-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+    // Mapped segments in order; readers index into it without locking.
+    private volatile Segment[] segments = new Segment[0];
+
+    // Guarded by this.
+    private Segment current;
+    private long nextSeq;
+    private long appendedSeq;
+    private int unforcedFrom;
+    private boolean closed;
+
+    private final Object durableLock = new Object();
+    private volatile long durableSeq;
+    private volatile IOException failure;
+
+    private Journal(Path dir, int segmentBytes, int heapEntries, long groupCommitMicros) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.heapEntries = heapEntries;
+        this.windowNanos = groupCommitMicros * 1000L;
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    static Journal open(Path dir, long groupCommitMicros, Map<String, Account> recoverInto) throws IOException {
+        return open(dir, groupCommitMicros, DEFAULT_SEGMENT_BYTES, DEFAULT_HEAP_ENTRIES, recoverInto);
+    }
+
+    // Replays the segments in dir (if any) into recoverInto and opens the
+    // journal for appending. Recovered accounts are journaled from then on.
+    static Journal open(Path dir, long groupCommitMicros, int segmentBytes, int heapEntries,
+                        Map<String, Account> recoverInto) throws IOException {
+        if (segmentBytes < 1024) throw new IllegalArgumentException("Segment size too small: " + segmentBytes);
+        if (heapEntries < 1) throw new IllegalArgumentException("Must keep at least one history entry on heap");
+        Files.createDirectories(dir);
+        Journal journal = new Journal(dir, segmentBytes, heapEntries, groupCommitMicros);
+        journal.recover(recoverInto);
+        for (Account acc : recoverInto.values()) {
+            Trail trail = journal.trails.get(acc.getAccountNumber());
+            if (trail != null) trail.attach();
+        }
+        journal.writer.start();
+        return journal;
+    }
+
+    // Journals a new account (its parameters and the entries it already has)
+    // and starts journaling everything it records from now on. Returns false,
+    // writing nothing, if an account with that number is already journaled;
+    // the trails table is what decides which of two racing openers wins. If
+    // the journal fails, the account is forgotten again and the failure
+    // propagates.
+    boolean accountOpened(Account account) {
+        Trail trail = new Trail(account.getAccountNumber());
+        trail.account = account;
+        if (trails.putIfAbsent(account.getAccountNumber(), trail) != null) return false;
+        account.lock.lock();
+        try {
+            appendCreate(account);
+            for (int i = 0; i < account.history.size(); i++) trail.entryAdded(account, i);
+            trail.attach();
+        } catch (RuntimeException e) {
+            trails.remove(account.getAccountNumber(), trail);
+            throw e;
+        } finally {
+            account.lock.unlock();
+        }
+        return true;
+    }
+
+    // Blocks until every record up to seq has been forced to disk.
+    void awaitDurable(long seq) {
+        for (int i = 0; i < SPINS && durableSeq < seq && failure == null; i++) Thread.yield();
+        if (durableSeq < seq && failure == null) {
+            synchronized (durableLock) {
+                while (durableSeq < seq && failure == null) {
+                    try {
+                        durableLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted waiting for journal commit", e);
+                    }
+                }
+            }
+        }
+        if (durableSeq < seq) throw new UncheckedIOException("Journal write failed", failure);
+    }
+
+    long lastSequence() {
+        synchronized (this) {
+            return nextSeq - 1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotter.shutdownNow();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Segment segment : segments) segment.channel.close();
+        if (failure != null) throw failure;
+    }
+
+    // Per-account journal state: the chain head and the sparse index of
+    // entry positions. Also serves the account's trimmed history.
+    final class Trail implements AccountListener, HistoryArchive {
+        final String accountNumber;
+        // Encoded on the first append, under the journal's lock; accounts
+        // restored from a snapshot may never need it.
+        private byte[] numberBytes;
+        Account account;
+        // Guarded by this trail.
+        private int count;
+        private long lastPosition = NO_POSITION;
+        private long lastTime = Long.MIN_VALUE;
+        private long[] index = new long[4];
+        // Time and balanceAfter of each indexed entry. The first unloaded
+        // slots came from a snapshot, which only has positions; they are read
+        // from the segments on first use so startup stays cheap, and until
+        // then these arrays are not allocated.
+        private long[] times = new long[4];
+        private long[] balances = new long[4];
+        private int unloaded;
+        // Balance implied by the journaled entries. Equal to the account
+        // balance for locked accounts; for lock-free accounts it excludes a
+        // CAS whose entry has not been recorded yet, which is what a snapshot
+        // must capture so that replay does not apply that entry twice.
+        private long balance;
+
+        Trail(String accountNumber) {
+            this.accountNumber = accountNumber;
+        }
+
+        // Must hold the journal's lock.
+        private byte[] numberBytes() {
+            if (numberBytes == null) numberBytes = utf8(accountNumber);
+            return numberBytes;
+        }
+
+        void attach() {
+            account.addListener(this);
+            account.archive = this;
+        }
+
+        @Override
+        public void entryAdded(Account account, int i) {
+            appendEntry(this, account.history, i);
+            if (account.history.retained() >= 2 * heapEntries) account.history.trimTo(heapEntries);
+        }
+
+        @Override
+        public void operationCompleted(Account account) {
+            awaitDurable(lastAppended.get()[0]);
+        }
+
+        synchronized void recorded(int historyIndex, long position, long epochNanos, TransactionType type,
+                                   long amount, long balanceAfter) {
+            balance = type.applyTo(balance, amount);
+            if (historyIndex % INDEX_STRIDE == 0) {
+                if (unloaded > 0) loadCheckpoints();
+                int slot = historyIndex / INDEX_STRIDE;
+                if (slot == index.length) {
+                    index = Arrays.copyOf(index, index.length * 2);
+                    times = Arrays.copyOf(times, index.length);
+                    balances = Arrays.copyOf(balances, index.length);
+                }
+                index[slot] = position;
+                times[slot] = epochNanos;
+                balances[slot] = balanceAfter;
+            }
+            count = historyIndex + 1;
+            lastPosition = position;
+            lastTime = Math.max(lastTime, epochNanos);
+        }
+
+        synchronized long last() { return lastPosition; }
+
+        // Latest stamp among the recorded entries, or Long.MIN_VALUE if none.
+        synchronized long lastTime() { return lastTime; }
+
+        synchronized int count() { return count; }
+
+        synchronized long balance() { return balance; }
+
+        synchronized long[] index() { return Arrays.copyOf(index, (count + INDEX_STRIDE - 1) / INDEX_STRIDE); }
+
+        synchronized void restore(int count, long lastPosition, long lastTime, long[] index, long balance) {
+            this.count = count;
+            this.lastPosition = lastPosition;
+            this.lastTime = lastTime;
+            this.index = index.length == 0 ? new long[4] : index;
+            this.unloaded = (count + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            this.times = unloaded > 0 ? null : new long[this.index.length];
+            this.balances = unloaded > 0 ? null : new long[this.index.length];
+            this.balance = balance;
+        }
+
+        // Must hold this. Fills in the checkpoints restored from a snapshot.
+        private void loadCheckpoints() {
+            Segment[] segs = segments;
+            times = new long[index.length];
+            balances = new long[index.length];
+            for (int slot = 0; slot < unloaded; slot++) {
+                times[slot] = timeAt(segs, index[slot]);
+                balances[slot] = balanceAfterAt(segs, index[slot]);
+            }
+            unloaded = 0;
+        }
+
+        @Override
+        public TransactionHistory read(int from, int to) {
+            long start;
+            int startIndex;
+            synchronized (this) {
+                if (from < 0 || to > count || from > to) {
+                    throw new IndexOutOfBoundsException("Entries [" + from + ", " + to + ") of " + count);
+                }
+                if (from == to) return TransactionHistory.startingAt(from, 1);
+                int slot = (to - 1 + INDEX_STRIDE - 1) / INDEX_STRIDE;
+                if ((long) slot * INDEX_STRIDE < count) {
+                    start = index[slot];
+                    startIndex = slot * INDEX_STRIDE;
+                } else {
+                    start = lastPosition;
+                    startIndex = count - 1;
+                }
+            }
+            Segment[] segs = segments;
+            long position = start;
+            for (int i = startIndex; i > to - 1; i--) position = prevPosition(segs, position);
+            long[] positions = new long[to - from];
+            for (int i = to - 1; i >= from; i--) {
+                positions[i - from] = position;
+                if (i > from) position = prevPosition(segs, position);
+            }
+            TransactionHistory out = TransactionHistory.startingAt(from, positions.length);
+            for (long p : positions) readEntry(segs, p, out);
+            return out;
+        }
+
+        // Binary search over the times of the indexed entries (every
+        // INDEX_STRIDE-th), then within the one stride of entries that must
+        // hold the answer.
+        @Override
+        public int indexAtOrAfter(long epochNanos, int to) {
+            long[] t = checkpointTimes(to);
+            int lo = 0;
+            int hi = (to + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (t[mid] < epochNanos) lo = mid + 1;
+                else hi = mid;
+            }
+            // Indexed entry lo - 1 is before epochNanos and entry lo (if
+            // below to) is not, so the answer lies between them.
+            if (lo == 0) return 0;
+            int from = (lo - 1) * INDEX_STRIDE + 1;
+            int end = Math.min(lo * INDEX_STRIDE, to);
+            if (from >= end) return end;
+            return read(from, end).indexAtOrAfter(epochNanos);
+        }
+
+        // The last indexed entry stamped at or before epochNanos carries a
+        // running balance, so only the entries after it in its stride are
+        // read, and none when the next indexed entry is already later.
+        @Override
+        public long balanceAt(long epochNanos, int to) {
+            long[] t = checkpointTimes(to);
+            long[] b;
+            synchronized (this) {
+                b = balances;
+            }
+            int lo = 0;
+            int hi = (to + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (t[mid] <= epochNanos) lo = mid + 1;
+                else hi = mid;
+            }
+            if (lo == 0) return Account.NO_BALANCE;
+            int from = (lo - 1) * INDEX_STRIDE + 1;
+            int end = Math.min(lo * INDEX_STRIDE, to);
+            if (from >= end) return b[lo - 1];
+            TransactionHistory stride = read(from, end);
+            int after = stride.indexAfter(epochNanos);
+            return after == from ? b[lo - 1] : stride.balanceAt(after - 1);
+        }
+
+        // Checkpoint times covering entries [0, to). Slots below to are never
+        // written again, so the array can be read without holding this.
+        private synchronized long[] checkpointTimes(int to) {
+            if (to < 0 || to > count) throw new IndexOutOfBoundsException("Entries [0, " + to + ") of " + count);
+            if (unloaded > 0) loadCheckpoints();
+            return times;
+        }
+    }
+
+    private void appendCreate(Account account) {
+        byte kind = kindOf(account);
+        byte[] holder = utf8(account.getAccountHolder());
+        synchronized (this) {
+            ByteBuffer buf = begin();
+            long seq = nextSeq;
+            buf.put(CREATE).putLong(seq).put(kind);
+            putString(buf, utf8(account.getAccountNumber()));
+            putString(buf, holder);
+            buf.putLong(param1(account)).putLong(param2(account));
+            commit(buf, seq);
+        }
+    }
+
+    static byte kindOf(Account account) {
+        if (account instanceof SavingsAccount) return SAVINGS;
+        if (account instanceof CurrentAccount) return CURRENT;
+        throw new IllegalArgumentException("Cannot journal account type " + account.getClass().getSimpleName());
+    }
+
+    // Interest rate for savings accounts, overdraft limit for current accounts.
+    static long param1(Account account) {
+        return account instanceof SavingsAccount
+                ? ((SavingsAccount) account).getAnnualInterestRate()
+                : ((CurrentAccount) account).getOverdraftLimit();
+    }
+
+    // Overdraft fee for current accounts.
+    static long param2(Account account) {
+        return account instanceof CurrentAccount ? ((CurrentAccount) account).getOverdraftFee() : 0;
+    }
+
+    static Account newAccount(byte kind, String number, String holder, long param1, long param2,
+                              long balance, TransactionHistory history) {
+        return kind == SAVINGS
+                ? new SavingsAccount(number, holder, balance, param1, history)
+                : new CurrentAccount(number, holder, balance, param1, param2, history);
+    }
+
+    private void appendEntry(Trail trail, TransactionHistory h, int i) {
+        int id = h.descriptionIdAt(i);
+        byte[] desc = id == Descriptions.NOT_INTERNED ? Descriptions.utf8(h.descriptionAt(i)) : Descriptions.utf8(id);
+        synchronized (this) {
+            ByteBuffer buf = begin();
+            long seq = nextSeq;
+            buf.put(ENTRY).putLong(seq);
+            putString(buf, trail.numberBytes());
+            buf.putInt(i).putLong(trail.last())
+               .putLong(h.timeAt(i)).put(h.typeAt(i).code())
+               .putLong(h.amountAt(i)).putLong(h.balanceAt(i)).putLong(h.referenceAt(i));
+            putString(buf, desc);
+            trail.recorded(i, commit(buf, seq), h.timeAt(i), h.typeAt(i), h.amountAt(i), h.balanceAt(i));
+        }
+    }
+
+    // Must hold this. Returns the scratch buffer positioned after the header.
+    private ByteBuffer begin() {
+        if (closed) throw new IllegalStateException("Journal is closed");
+        scratch.clear();
+        scratch.position(HEADER);
+        return scratch;
+    }
+
+    // Must hold this. Frames the record in scratch, copies it into the current
+    // segment (rolling to a new one if needed) and returns its position.
+    private long commit(ByteBuffer buf, long seq) {
+        int payloadLength = buf.position() - HEADER;
+        crc.reset();
+        crc.update(buf.array(), HEADER, payloadLength);
+        buf.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+        buf.flip();
+        int length = buf.remaining();
+        try {
+            // Leave room for the zero length word that ends a segment.
+            if (current == null || current.map.position() + length + 4 > current.map.capacity()) roll(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal segment", e);
+        }
+        long position = ((long) current.index << 32) | current.map.position();
+        boolean wasIdle = appendedSeq == durableSeq;
+        current.map.put(buf);
+        nextSeq = seq + 1;
+        appendedSeq = seq;
+        lastAppended.get()[0] = seq;
+        if (wasIdle) notifyAll();
+        return position;
+    }
+
+    // Must hold this.
+    private void roll(long firstSeq) throws IOException {
+        Path file = dir.resolve(String.format("%020d%s", firstSeq, SUFFIX));
+        Segment segment = Segment.map(file, segments.length, firstSeq, segmentBytes);
+        Segment[] grown = Arrays.copyOf(segments, segments.length + 1);
+        grown[segment.index] = segment;
+        segments = grown;
+        current = segment;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (appendedSeq == durableSeq && !closed) wait();
+                    if (appendedSeq == durableSeq) return;
+                }
+                if (windowNanos > 0) LockSupport.parkNanos(windowNanos);
+                long batchSeq;
+                int from;
+                int to;
+                synchronized (this) {
+                    batchSeq = appendedSeq;
+                    from = unforcedFrom;
+                    to = current.index;
+                    unforcedFrom = to;
+                }
+                Segment[] segs = segments;
+                for (int i = from; i <= to; i++) segs[i].map.force();
+                publishDurable(batchSeq);
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Journal writer interrupted");
+        } catch (RuntimeException e) {
+            failure = new IOException("Journal force failed", e);
+        }
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    private void publishDurable(long seq) {
+        durableSeq = seq;
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    // Loads the newest readable snapshot, then applies every intact record
+    // that is not already in it and leaves the journal ready to append after
+    // the last one. Segments after a corrupt record are removed.
+    private void recover(Map<String, Account> accounts) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : stream) files.add(p);
+        }
+        Collections.sort(files);
+        Segment[] mapped = new Segment[files.size()];
+        for (int i = 0; i < mapped.length; i++) {
+            String name = files.get(i).getFileName().toString();
+            long firstSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            mapped[i] = Segment.map(files.get(i), i, firstSeq, segmentBytes);
+        }
+        segments = mapped;
+
+        long snapshotSeq = Snapshot.loadNewest(this, dir, accounts);
+        // Only the segment holding the first record after the snapshot, and
+        // the ones after it, need to be scanned.
+        int first = 0;
+        while (first + 1 < mapped.length && mapped[first + 1].firstSeq <= snapshotSeq + 1) first++;
+
+        long lastSeq = snapshotSeq;
+        int end = mapped.length;
+        for (int s = first; s < mapped.length; s++) {
+            Segment segment = mapped[s];
+            ByteBuffer map = segment.map;
+            int capacity = map.capacity();
+            int offset = 0;
+            boolean intact = true;
+            while (offset + HEADER <= capacity) {
+                int length = map.getInt(offset);
+                if (length == 0) break;
+                if (length < 0 || offset + HEADER + length > capacity || length > MAX_RECORD) {
+                    intact = false;
+                    break;
+                }
+                // Set on their own lines: on Java 8, Buffer's setters return Buffer.
+                ByteBuffer payload = map.duplicate();
+                payload.position(offset + HEADER);
+                payload.limit(offset + HEADER + length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != map.getInt(offset + 4)) {
+                    intact = false;
+                    break;
+                }
+                long seq = payload.getLong(payload.position() + 1);
+                if (seq > snapshotSeq) {
+                    apply(payload, ((long) segment.index << 32) | offset, accounts);
+                    lastSeq = seq;
+                }
+                offset += HEADER + length;
+            }
+            map.position(offset);
+            if (!intact) {
+                // Scrub a torn record so the next recovery does not trip over it.
+                map.putInt(offset, 0);
+                end = s + 1;
+                break;
+            }
+        }
+        for (int s = end; s < mapped.length; s++) {
+            mapped[s].channel.close();
+            Files.delete(files.get(s));
+        }
+        segments = Arrays.copyOf(mapped, end);
+        current = end == 0 ? null : mapped[end - 1];
+        nextSeq = lastSeq + 1;
+        appendedSeq = lastSeq;
+        durableSeq = lastSeq;
+        unforcedFrom = current == null ? 0 : current.index;
+    }
+
+    private void apply(ByteBuffer in, long position, Map<String, Account> accounts) {
+        byte kind = in.get();
+        in.getLong(); // sequence number, already checked by recover()
+        if (kind == CREATE) {
+            byte accountKind = in.get();
+            String number = getString(in);
+            String holder = getString(in);
+            long param1 = in.getLong();
+            long param2 = in.getLong();
+            Account acc = accountKind == SAVINGS
+                    ? new SavingsAccount(number, holder, 0, param1)
+                    : new CurrentAccount(number, holder, 0, param1, param2);
+            if (accounts.putIfAbsent(number, acc) == null) {
+                Trail trail = new Trail(number);
+                trail.account = acc;
+                trails.put(number, trail);
+            }
+        } else if (kind == ENTRY) {
+            Trail trail = trails.get(getString(in));
+            int historyIndex = in.getInt();
+            in.getLong(); // previous position, only needed when reading history back
+            long time = in.getLong();
+            TransactionType type = TransactionType.fromCode(in.get());
+            long amount = in.getLong();
+            long balanceAfter = in.getLong();
+            long ref = in.getLong();
+            String desc = getString(in);
+            // Entries written while a snapshot was being taken may already be in it.
+            if (trail != null && historyIndex >= trail.count()) {
+                Account acc = trail.account;
+                acc.restoreEntry(time, type, amount, balanceAfter, desc, ref);
+                if (acc.history.retained() >= 2 * heapEntries) acc.history.trimTo(heapEntries);
+                trail.recorded(historyIndex, position, time, type, amount, balanceAfter);
+            }
+        }
+    }
+
+    // Called by Snapshot while loading: registers an account restored from a
+    // snapshot together with its journal trail. lastTime is the trail's latest
+    // stamp, or Long.MIN_VALUE when the snapshot predates it and it has to be
+    // read from the last entry; either way BankClock learns of it, since
+    // entries covered by the snapshot are never replayed.
+    void restoreTrail(Account account, int count, long lastPosition, long lastTime, long[] index, long balance) {
+        if (lastTime == Long.MIN_VALUE && lastPosition != NO_POSITION) lastTime = timeAt(segments, lastPosition);
+        if (lastTime != Long.MIN_VALUE) BankClock.observe(lastTime);
+        Trail trail = new Trail(account.getAccountNumber());
+        trail.account = account;
+        trail.restore(count, lastPosition, lastTime, index, balance);
+        trails.put(account.getAccountNumber(), trail);
+    }
+
+    Collection<Trail> trails() {
+        return trails.values();
+    }
+
+    // Writes a snapshot of every journaled account now, on the calling thread.
+    // Writers are only paused account by account, never all at once.
+    Path snapshot() throws IOException {
+        long seq;
+        synchronized (this) {
+            seq = nextSeq - 1;
+        }
+        return Snapshot.write(this, dir, seq);
+    }
+
+    // Starts a snapshot on the journal's background snapshot thread.
+    Future<Path> snapshotAsync() {
+        return snapshotter.submit(this::snapshot);
+    }
+
+    // Takes a background snapshot every period seconds until the journal closes.
+    void snapshotEvery(long seconds) {
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot failed: " + e);
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static long prevPosition(Segment[] segs, long position) {
+        ByteBuffer map = segs[(int) (position >>> 32)].map;
+        int offset = (int) position + HEADER + 1 + 8;
+        int numberLength = map.getShort(offset) & 0xFFFF;
+        return map.getLong(offset + 2 + numberLength + 4);
+    }
+
+    private static long timeAt(Segment[] segs, long position) {
+        ByteBuffer map = segs[(int) (position >>> 32)].map;
+        int offset = (int) position + HEADER + 1 + 8;
+        int numberLength = map.getShort(offset) & 0xFFFF;
+        return map.getLong(offset + 2 + numberLength + 4 + 8);
+    }
+
+    private static long balanceAfterAt(Segment[] segs, long position) {
+        ByteBuffer map = segs[(int) (position >>> 32)].map;
+        int offset = (int) position + HEADER + 1 + 8;
+        int numberLength = map.getShort(offset) & 0xFFFF;
+        return map.getLong(offset + 2 + numberLength + 4 + 8 + 8 + 1 + 8);
+    }
+
+    private static void readEntry(Segment[] segs, long position, TransactionHistory out) {
+        ByteBuffer in = segs[(int) (position >>> 32)].map.duplicate();
+        in.position((int) position + HEADER + 1 + 8);
+        int numberLength = in.getShort() & 0xFFFF;
+        in.position(in.position() + numberLength + 4 + 8); // skip number, historyIndex, prevPosition
+        long time = in.getLong();
+        TransactionType type = TransactionType.fromCode(in.get());
+        long amount = in.getLong();
+        long balanceAfter = in.getLong();
+        long ref = in.getLong();
+        out.append(time, type, amount, balanceAfter, getString(in), ref);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        buf.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        final int index;
+        final long firstSeq;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+
+        private Segment(int index, long firstSeq, FileChannel channel, MappedByteBuffer map) {
+            this.index = index;
+            this.firstSeq = firstSeq;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        static Segment map(Path file, int index, long firstSeq, int bytes) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // An existing segment keeps its size even if the configured size changed.
+            long size = Math.max(channel.size(), bytes);
+            return new Segment(index, firstSeq, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * JsonWriter.java
+ * Streaming JSON writer that encodes straight into a byte buffer and flushes
+ * it to an OutputStream. Numbers and money amounts are written digit by digit
+ * and strings are escaped and UTF-8 encoded char by char, so writing a
+ * document creates no intermediate Strings.
+ *
+ * Commas and colons are handled by the writer: call name() before each value
+ * inside an object, and nothing extra inside an array.
+ */
+
+package bank;
+
+import java.io.*;
+
+final class JsonWriter implements Flushable, Closeable {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+    private static final int MAX_DEPTH = 64;
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+    // Whether the container at each depth already holds an element.
+    private final boolean[] hasElements = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+    private boolean drained;
+
+    JsonWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    JsonWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, 64)];
+    }
+
+    JsonWriter beginObject() throws IOException {
+        return openContainer('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        return closeContainer('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        return openContainer('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        return closeContainer(']');
+    }
+
+    JsonWriter name(String name) throws IOException {
+        separate();
+        quoted(name);
+        put(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String s) throws IOException {
+        if (s == null) return nullValue();
+        separate();
+        quoted(s);
+        return this;
+    }
+
+    JsonWriter value(long v) throws IOException {
+        separate();
+        digits(v);
+        return this;
+    }
+
+    JsonWriter value(boolean v) throws IOException {
+        separate();
+        ascii(v ? "true" : "false");
+        return this;
+    }
+
+    JsonWriter nullValue() throws IOException {
+        separate();
+        ascii("null");
+        return this;
+    }
+
+    // Writes minor units as an exact decimal number, e.g. -12.05.
+    JsonWriter money(long minor) throws IOException {
+        return decimal(minor, Money.SCALE);
+    }
+
+    // Writes a Money rate as a percentage, e.g. 2.5000.
+    JsonWriter rate(long rate) throws IOException {
+        return decimal(rate, Money.RATE_SCALE);
+    }
+
+    // Writes unscaled / 10^scale as an exact decimal number.
+    JsonWriter decimal(long unscaled, int scale) throws IOException {
+        separate();
+        long pow = 1;
+        for (int i = 0; i < scale; i++) pow *= 10;
+        long whole = unscaled / pow;
+        long fraction = Math.abs(unscaled % pow);
+        if (unscaled < 0 && whole == 0) put('-');
+        digits(whole);
+        if (scale > 0) {
+            put('.');
+            for (long p = pow / 10; p > 0; p /= 10) put((char) ('0' + fraction / p % 10));
+        }
+        return this;
+    }
+
+    // Writes epoch nanoseconds as an ISO-8601 UTC string with millisecond
+    // precision, e.g. "2024-03-01T09:30:00.125Z".
+    JsonWriter timestamp(long epochNanos) throws IOException {
+        separate();
+        long millis = Math.floorDiv(epochNanos, 1_000_000L);
+        long days = Math.floorDiv(millis, 86_400_000L);
+        int ofDay = (int) Math.floorMod(millis, 86_400_000L);
+        long date = EpochDays.civil(days);
+        long year = EpochDays.year(date);
+        put('"');
+        if (year >= 0 && year <= 9999) {
+            padded((int) year, 4);
+        } else {
+            digits(year);
+        }
+        put('-');
+        padded(EpochDays.month(date), 2);
+        put('-');
+        padded(EpochDays.day(date), 2);
+        put('T');
+        padded(ofDay / 3_600_000, 2);
+        put(':');
+        padded(ofDay / 60_000 % 60, 2);
+        put(':');
+        padded(ofDay / 1000 % 60, 2);
+        put('.');
+        padded(ofDay % 1000, 3);
+        put('Z');
+        put('"');
+        return this;
+    }
+
+    // Bytes written so far that are still in the buffer.
+    int buffered() { return pos; }
+
+    // Whether any bytes have been handed to the stream yet.
+    boolean drained() { return drained; }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    // Writes what is buffered and closes the stream.
+    @Override
+    public void close() throws IOException {
+        drain();
+        out.close();
+    }
+
+    private JsonWriter openContainer(char bracket) throws IOException {
+        separate();
+        if (depth == MAX_DEPTH) throw new IllegalStateException("JSON nested too deeply");
+        put(bracket);
+        hasElements[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter closeContainer(char bracket) throws IOException {
+        if (depth == 0) throw new IllegalStateException("No open JSON container");
+        depth--;
+        put(bracket);
+        return this;
+    }
+
+    // Writes the comma before a value or name unless it follows a name or is
+    // the first element of its container.
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElements[depth - 1]) put(',');
+            hasElements[depth - 1] = true;
+        }
+    }
+
+    private void quoted(String s) throws IOException {
+        put('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                put(c);
+            } else if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                switch (c) {
+                    case '\n': put('\\'); put('n'); break;
+                    case '\r': put('\\'); put('r'); break;
+                    case '\t': put('\\'); put('t'); break;
+                    default:
+                        put('\\'); put('u'); put('0'); put('0');
+                        putByte(HEX[c >> 4]);
+                        putByte(HEX[c & 0xF]);
+                }
+            } else if (c < 0x800) {
+                putByte(0xC0 | (c >> 6));
+                putByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                putByte(0xF0 | (cp >> 18));
+                putByte(0x80 | ((cp >> 12) & 0x3F));
+                putByte(0x80 | ((cp >> 6) & 0x3F));
+                putByte(0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                put('?'); // unpaired surrogate, not encodable
+            } else {
+                putByte(0xE0 | (c >> 12));
+                putByte(0x80 | ((c >> 6) & 0x3F));
+                putByte(0x80 | (c & 0x3F));
+            }
+        }
+        put('"');
+    }
+
+    private void digits(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            for (byte b : MIN_LONG) putByte(b);
+            return;
+        }
+        if (v < 0) {
+            put('-');
+            v = -v;
+        }
+        if (buf.length - pos < 20) drain();
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    private void padded(int v, int width) throws IOException {
+        for (int p = width == 4 ? 1000 : width == 3 ? 100 : 10; p > 0; p /= 10) put((char) ('0' + v / p % 10));
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) put(s.charAt(i));
+    }
+
+    private void put(char c) throws IOException {
+        putByte(c);
+    }
+
+    private void putByte(int b) throws IOException {
+        if (pos == buf.length) drain();
+        buf[pos++] = (byte) b;
+    }
+
+    private void drain() throws IOException {
+        if (pos == 0) return;
+        out.write(buf, 0, pos);
+        pos = 0;
+        drained = true;
+    }
+}
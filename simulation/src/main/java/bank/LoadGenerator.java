@@ -0,0 +1,273 @@
+/*
+ * LoadGenerator.java
+ * Load client for BankServer. Opens many connections from one selector
+ * thread; each connection keeps a fixed number of requests in flight (1 is
+ * plain request/response, more is pipelining), alternating deposits of 1.00
+ * and withdrawals of 0.50 on random LOAD-<n> accounts. Latency is measured
+ * per request, from the moment it is written to its response. It
+ * reports throughput and latency percentiles over the measured window, then
+ * checks that the accounts' balances moved by exactly what the successful
+ * operations add up to.
+ *
+ * How to run (against java -jar simulation/target/bank-simulation.jar --serve):
+ *   java -cp simulation/target/bank-simulation.jar bank.LoadGenerator [host] [port] [connections] [seconds] [accounts] [pipeline]
+ * Every connection takes a file descriptor on both ends, so 10,000
+ * connections on one box need ulimit -n well above 20,000 for the pair.
+ */
+
+package bank;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LoadGenerator {
+    static final String PREFIX = "LOAD-";
+    static final long DEPOSIT = 100;
+    static final long WITHDRAWAL = 50;
+    // Connections opened per selector round, so the server's accept backlog
+    // is not overrun.
+    private static final int CONNECT_BATCH = 500;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int accounts = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+        int pipeline = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+        Result r = run(new InetSocketAddress(host, port), connections, pipeline, 2, seconds, accounts);
+        r.print(pipeline == 1 ? "tcp request/response" : "tcp pipeline=" + pipeline, connections);
+    }
+
+    static final class Result {
+        long ops;
+        long rejected;
+        long failed;
+        double seconds;
+        long[] latencies = new long[1 << 16];
+        int samples;
+
+        void record(long nanos) {
+            if (samples == latencies.length) latencies = Arrays.copyOf(latencies, samples * 2);
+            latencies[samples++] = nanos;
+        }
+
+        // Adds another run's counts and samples to this one.
+        void add(Result other) {
+            ops += other.ops;
+            rejected += other.rejected;
+            failed += other.failed;
+            for (int i = 0; i < other.samples; i++) record(other.latencies[i]);
+        }
+
+        long percentile(double p) {
+            if (samples == 0) return 0;
+            return latencies[Math.min(samples - 1, (int) Math.ceil(p / 100 * samples) - 1)];
+        }
+
+        void print(String name, int connections) {
+            Arrays.sort(latencies, 0, samples);
+            System.out.println(String.format("%-32s conns=%-6d ops=%-10d %12.0f ops/s  p50=%.0fus p99=%.0fus p99.9=%.0fus max=%.0fus"
+                            + (rejected + failed > 0 ? "  rejected=%d failed=%d" : ""),
+                    name, connections, ops, ops / seconds, percentile(50) / 1e3, percentile(99) / 1e3,
+                    percentile(99.9) / 1e3, samples == 0 ? 0 : latencies[samples - 1] / 1e3, rejected, failed));
+        }
+    }
+
+    // Creates the accounts if needed, runs warmupSeconds unmeasured and then
+    // seconds measured, and verifies the balances afterwards.
+    static Result run(InetSocketAddress address, int connections, int pipeline, int warmupSeconds, int seconds,
+                      int accounts) throws IOException {
+        try (SocketChannel control = SocketChannel.open(address)) {
+            for (int a = 0; a < accounts; a++) {
+                ByteBuffer req = request(BankProtocol.CREATE, 0);
+                req.put((byte) 'C');
+                BankProtocol.putString(req, PREFIX + a);
+                BankProtocol.putString(req, "Load");
+                req.putLong(0).putLong(0).putLong(0);
+                byte status = call(control, req).get();
+                if (status != BankProtocol.OK && status != BankProtocol.EXISTS) {
+                    throw new IOException("Could not create " + PREFIX + a + ": status " + status);
+                }
+            }
+            long before = totalBalance(control, accounts);
+            long[] succeeded = new long[2]; // deposits, withdrawals
+            Result result = drive(address, connections, pipeline, warmupSeconds, seconds, accounts, succeeded);
+            long after = totalBalance(control, accounts);
+            long expected = succeeded[0] * DEPOSIT - succeeded[1] * WITHDRAWAL;
+            if (after - before != expected) {
+                throw new IllegalStateException("Balances moved by " + (after - before) + ", expected " + expected);
+            }
+            return result;
+        }
+    }
+
+    private static Result drive(InetSocketAddress address, int connections, int pipeline, int warmupSeconds,
+                                int seconds, int accounts, long[] succeeded) throws IOException {
+        Result result = new Result();
+        Selector selector = Selector.open();
+        List<Client> clients = new ArrayList<>();
+        try {
+            int opened = 0;
+            int connected = 0;
+            while (connected < connections) {
+                for (int i = 0; i < CONNECT_BATCH && opened < connections && opened - connected < CONNECT_BATCH; i++, opened++) {
+                    SocketChannel ch = SocketChannel.open();
+                    ch.configureBlocking(false);
+                    ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    Client c = new Client(ch, accounts, pipeline);
+                    clients.add(c);
+                    if (ch.connect(address)) {
+                        connected++;
+                        c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                    } else {
+                        c.key = ch.register(selector, SelectionKey.OP_CONNECT, c);
+                    }
+                }
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isConnectable() && ((SocketChannel) key.channel()).finishConnect()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        connected++;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+            for (Client c : clients) {
+                for (int i = 0; i < pipeline; i++) c.send(System.nanoTime());
+            }
+            int active = clients.size();
+            while (active > 0) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client c = (Client) key.attachment();
+                    if (key.isWritable()) c.flush();
+                    if (!key.isReadable()) continue;
+                    if (c.channel.read(c.in) < 0) throw new EOFException("Server closed a connection");
+                    c.in.flip();
+                    while (c.in.remaining() >= 4 && c.in.remaining() >= 4 + c.in.getInt(c.in.position())) {
+                        int length = c.in.getInt();
+                        int next = c.in.position() + length;
+                        byte status = c.in.get();
+                        c.in.position(next);
+                        long now = System.nanoTime();
+                        int slot = (int) (c.received++ % pipeline);
+                        long sentAt = c.sentAt[slot];
+                        if (status == BankProtocol.OK) succeeded[c.ops[slot] == BankProtocol.DEPOSIT ? 0 : 1]++;
+                        if (sentAt >= measureFrom && now <= end) {
+                            result.ops++;
+                            result.record(now - sentAt);
+                            if (status == BankProtocol.INSUFFICIENT_FUNDS) result.rejected++;
+                            else if (status != BankProtocol.OK) result.failed++;
+                        }
+                        if (now < end) c.send(now);
+                    }
+                    c.in.compact();
+                    if (c.received == c.sent && System.nanoTime() >= end) {
+                        key.interestOps(0);
+                        active--;
+                    }
+                }
+            }
+            result.seconds = seconds;
+            return result;
+        } finally {
+            for (Client c : clients) c.channel.close();
+            selector.close();
+        }
+    }
+
+    // Requests in flight form a FIFO, because responses come back in order.
+    private static final class Client {
+        final SocketChannel channel;
+        final int accounts;
+        final ByteBuffer in;
+        // Kept in write mode; flush() sends what it can and keeps the rest.
+        final ByteBuffer out;
+        final long[] sentAt;
+        final byte[] ops;
+        SelectionKey key;
+        byte op = BankProtocol.WITHDRAW;
+        long sent;
+        long received;
+
+        Client(SocketChannel channel, int accounts, int pipeline) {
+            this.channel = channel;
+            this.accounts = accounts;
+            this.in = ByteBuffer.allocate(Math.max(4096, pipeline * 32));
+            this.out = ByteBuffer.allocate(pipeline * 64);
+            this.sentAt = new long[pipeline];
+            this.ops = new byte[pipeline];
+        }
+
+        void send(long now) throws IOException {
+            op = op == BankProtocol.DEPOSIT ? BankProtocol.WITHDRAW : BankProtocol.DEPOSIT;
+            int frame = out.position();
+            out.putInt(0).put(op).putInt((int) sent);
+            BankProtocol.putString(out, PREFIX + ThreadLocalRandom.current().nextInt(accounts));
+            out.putLong(op == BankProtocol.DEPOSIT ? DEPOSIT : WITHDRAWAL);
+            out.putInt(frame, out.position() - frame - 4);
+            int slot = (int) (sent++ % sentAt.length);
+            sentAt[slot] = now;
+            ops[slot] = op;
+            flush();
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    private static long totalBalance(SocketChannel control, int accounts) throws IOException {
+        long total = 0;
+        for (int a = 0; a < accounts; a++) {
+            ByteBuffer req = request(BankProtocol.BALANCE, 0);
+            BankProtocol.putString(req, PREFIX + a);
+            ByteBuffer resp = call(control, req);
+            if (resp.get() != BankProtocol.OK) throw new IOException("Balance of " + PREFIX + a + " failed");
+            resp.getInt();
+            total += resp.getLong();
+        }
+        return total;
+    }
+
+    // A request buffer with the frame header written; finish it with call().
+    static ByteBuffer request(byte op, int id) {
+        ByteBuffer req = ByteBuffer.allocate(4096);
+        req.putInt(0).put(op).putInt(id);
+        return req;
+    }
+
+    // Sends one request over a blocking channel and returns the response body.
+    static ByteBuffer call(SocketChannel channel, ByteBuffer req) throws IOException {
+        req.putInt(0, req.position() - 4);
+        req.flip();
+        while (req.hasRemaining()) channel.write(req);
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(channel, header);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(channel, body);
+        body.flip();
+        return body;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) throw new EOFException("Server closed the connection");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Money.java
+ * Fixed-point money helpers. Amounts are plain longs counting minor units
+ * (cents), so money arithmetic is exact, allocation-free integer arithmetic.
+ * Annual interest rates are longs too, in ten-thousandths of a percent
+ * (2.5% is 25_000), which keeps balance * rate inside a long for any
+ * realistic balance.
+ */
+
+package bank;
+
+import java.math.*;
+
+final class Money {
+    static final int SCALE = 2;
+    static final long MINOR_PER_MAJOR = 100;
+    // Rate units per 1 percent: 2.5% is stored as 25_000.
+    static final int RATE_SCALE = 4;
+    static final long RATE_PER_PERCENT = 10_000;
+
+    private Money() { }
+
+    static long ofMajor(long major) {
+        return Math.multiplyExact(major, MINOR_PER_MAJOR);
+    }
+
+    // Parses a decimal amount such as "12", "12.5" or "-0.07". More than two
+    // decimal places is rejected rather than silently rounded.
+    static long parse(String text) {
+        String s = requireText(text, "amount").trim();
+        return parseScaled(s, 0, s.length(), SCALE, "amount");
+    }
+
+    // Parses text[start, end) as an amount without copying it out first.
+    static long parse(CharSequence text, int start, int end) {
+        return parseScaled(text, start, end, SCALE, "amount");
+    }
+
+    // Parses an annual percentage such as "2.5" into rate units.
+    static long parseRate(String text) {
+        String s = requireText(text, "rate").trim();
+        return parseScaled(s, 0, s.length(), RATE_SCALE, "rate");
+    }
+
+    static long parseRate(CharSequence text, int start, int end) {
+        return parseScaled(text, start, end, RATE_SCALE, "rate");
+    }
+
+    // amount * numerator / denominator, rounded with the given mode.
+    static long multiply(long amount, long numerator, long denominator, RoundingMode mode) {
+        long product;
+        try {
+            product = Math.multiplyExact(amount, numerator);
+        } catch (ArithmeticException overflow) {
+            return BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(numerator))
+                    .divide(BigDecimal.valueOf(denominator), 0, mode).longValueExact();
+        }
+        return divide(product, denominator, mode);
+    }
+
+    // Interest on amount for one month at an annual rate given in rate units.
+    static long monthlyInterest(long amount, long annualRate, RoundingMode mode) {
+        return multiply(amount, annualRate, 100 * RATE_PER_PERCENT * 12, mode);
+    }
+
+    // Integer division with an explicit rounding mode.
+    static long divide(long dividend, long divisor, RoundingMode mode) {
+        long q = dividend / divisor;
+        long r = dividend % divisor;
+        if (r == 0) return q;
+        long sign = ((dividend ^ divisor) >> 63) | 1; // sign of the exact quotient
+        boolean awayFromZero;
+        switch (mode) {
+            case DOWN: awayFromZero = false; break;
+            case UP: awayFromZero = true; break;
+            case FLOOR: awayFromZero = sign < 0; break;
+            case CEILING: awayFromZero = sign > 0; break;
+            case HALF_UP:
+            case HALF_DOWN:
+            case HALF_EVEN: {
+                long twiceRemainder = Math.abs(r) * 2; // |r| < |divisor|, so no overflow for sane divisors
+                long absDivisor = Math.abs(divisor);
+                if (twiceRemainder != absDivisor) {
+                    awayFromZero = twiceRemainder > absDivisor;
+                } else if (mode == RoundingMode.HALF_UP) {
+                    awayFromZero = true;
+                } else if (mode == RoundingMode.HALF_DOWN) {
+                    awayFromZero = false;
+                } else {
+                    awayFromZero = (q & 1) != 0;
+                }
+                break;
+            }
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+        return awayFromZero ? q + sign : q;
+    }
+
+    static String format(long minor) {
+        return appendTo(new StringBuilder(24), minor).toString();
+    }
+
+    static String formatRate(long rate) {
+        return BigDecimal.valueOf(rate, RATE_SCALE).stripTrailingZeros().toPlainString();
+    }
+
+    // Appends minor as "-1234.56" without going through double or String.format.
+    static StringBuilder appendTo(StringBuilder sb, long minor) {
+        long major = minor / MINOR_PER_MAJOR;
+        int cents = (int) Math.abs(minor % MINOR_PER_MAJOR);
+        if (minor < 0 && major == 0) sb.append('-');
+        sb.append(major).append('.');
+        if (cents < 10) sb.append('0');
+        return sb.append(cents);
+    }
+
+    private static String requireText(String text, String what) {
+        if (text == null) throw new NumberFormatException("Missing " + what);
+        return text;
+    }
+
+    private static long parseScaled(CharSequence s, int start, int end, int scale, String what) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') throw new NumberFormatException("Invalid " + what + ": " + s.subSequence(start, end));
+            if (fraction >= 0 && ++fraction > scale) {
+                throw new NumberFormatException("Too many decimal places in " + what + ": " + s.subSequence(start, end));
+            }
+            value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+            digits++;
+        }
+        if (digits == 0) throw new NumberFormatException("Invalid " + what + ": " + s.subSequence(start, end));
+        for (int f = Math.max(fraction, 0); f < scale; f++) value = Math.multiplyExact(value, 10);
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * MonthEnd.java
+ * Month-end batch: posts interest to every savings account in the registry
+ * and returns the total. postInterest applies the simple monthly rate to the
+ * current balance; postAccruedInterest posts what each account has accrued
+ * daily since its last posting (see InterestAccrual).
+ *
+ * The registry's accounts are copied into an array, which a RecursiveTask
+ * halves until each leaf has at most LEAF_ACCOUNTS accounts. The tasks run in
+ * the given pool, so the caller picks the parallelism; accounts opened after
+ * the copy is taken wait for the next month-end. (ConcurrentHashMap's own
+ * bulk reductions were not used: they cap the number of splits at four per
+ * common-pool thread, whatever pool they run in, so leaves on a large book
+ * are far bigger than asked for.) Accounts are posted one at a time under
+ * their own lock, exactly as
+ * applyMonthlyInterest does, so month-end can run while other operations keep
+ * going.
+ *
+ * Posting an account does not wait for the journal. Once every account is
+ * posted, the batch waits a single time for the journal to make all of the
+ * INTEREST entries durable.
+ */
+
+package bank;
+
+import java.math.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+final class MonthEnd {
+    static final int LEAF_ACCOUNTS = 1024;
+
+    private MonthEnd() { }
+
+    static long postInterest(ConcurrentHashMap<String, Account> accounts, ForkJoinPool pool, Journal journal) {
+        return postInterest(accounts, pool, journal, SavingsAccount.INTEREST_ROUNDING);
+    }
+
+    static long postInterest(ConcurrentHashMap<String, Account> accounts, ForkJoinPool pool, Journal journal,
+                             RoundingMode rounding) {
+        return post(accounts, pool, journal, acc -> acc.postMonthlyInterest(rounding));
+    }
+
+    static long postAccruedInterest(ConcurrentHashMap<String, Account> accounts, ForkJoinPool pool, Journal journal) {
+        return post(accounts, pool, journal, acc -> acc.postAccrued(SavingsAccount.INTEREST_ROUNDING));
+    }
+
+    private static long post(ConcurrentHashMap<String, Account> accounts, ForkJoinPool pool, Journal journal,
+                             ToLongFunction<SavingsAccount> posting) {
+        Account[] book = accounts.values().toArray(new Account[0]);
+        long total;
+        try {
+            total = pool.submit(new Posting(book, 0, book.length, posting)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during month-end", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Month-end failed", e.getCause());
+        }
+        if (journal != null) journal.awaitDurable(journal.lastSequence());
+        return total;
+    }
+
+    // Posts interest to book[from, to), splitting in half until a leaf has at
+    // most LEAF_ACCOUNTS accounts.
+    private static final class Posting extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Account[] book;
+        private final int from;
+        private final int to;
+        private final ToLongFunction<SavingsAccount> posting;
+
+        Posting(Account[] book, int from, int to, ToLongFunction<SavingsAccount> posting) {
+            this.book = book;
+            this.from = from;
+            this.to = to;
+            this.posting = posting;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= LEAF_ACCOUNTS) {
+                long total = 0;
+                for (int i = from; i < to; i++) {
+                    if (book[i] instanceof SavingsAccount) total += posting.applyAsLong((SavingsAccount) book[i]);
+                }
+                return total;
+            }
+            int mid = (from + to) >>> 1;
+            Posting right = new Posting(book, mid, to, posting);
+            right.fork();
+            return new Posting(book, from, mid, posting).compute() + right.join();
+        }
+    }
+}
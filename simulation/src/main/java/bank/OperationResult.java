@@ -0,0 +1,76 @@
+/*
+ * OperationResult.java
+ * Mutable outcome of a non-throwing account operation (Account.tryDeposit,
+ * tryWithdraw and tryTransfer).
+ *
+ * The caller owns the object and passes it into every call, which overwrites
+ * all of its fields, so a hot loop can reuse one instance for millions of
+ * operations. Nothing is allocated on the success path, and a refusal is a
+ * status plus a RejectionReason instead of a thrown exception.
+ *
+ * Not thread-safe: use one per thread (or per shard, see ShardedEngine).
+ */
+
+package bank;
+
+final class OperationResult {
+    enum Status {
+        OK,
+        INVALID,    // non-positive amount, or a transfer to the same account
+        REJECTED    // the account's floor would be breached; see reason
+    }
+
+    static final int NO_SEQUENCE = -1;
+
+    private Status status = Status.OK;
+    private RejectionReason reason;
+    private long balance;
+    private int sequence = NO_SEQUENCE;
+
+    Status status() { return status; }
+
+    boolean isOk() { return status == Status.OK; }
+
+    // Why the operation was rejected, or null unless the status is REJECTED.
+    RejectionReason reason() { return reason; }
+
+    // The balance the operation left behind (the source's, for a transfer).
+    // After a rejection, the balance the operation saw; after INVALID, 0.
+    long balance() { return balance; }
+
+    // History index of the operation's entry (a withdrawal's, not its
+    // overdraft fee's; the source's XFER_OUT for a transfer), or NO_SEQUENCE.
+    int sequence() { return sequence; }
+
+    OperationResult ok(long balance) {
+        this.status = Status.OK;
+        this.reason = null;
+        this.balance = balance;
+        return this;
+    }
+
+    OperationResult invalid() {
+        this.status = Status.INVALID;
+        this.reason = null;
+        this.balance = 0;
+        this.sequence = NO_SEQUENCE;
+        return this;
+    }
+
+    OperationResult rejected(RejectionReason reason, long balance) {
+        this.status = Status.REJECTED;
+        this.reason = reason;
+        this.balance = balance;
+        this.sequence = NO_SEQUENCE;
+        return this;
+    }
+
+    // Set with the account lock held, as the entry is appended.
+    void sequence(int sequence) { this.sequence = sequence; }
+
+    @Override
+    public String toString() {
+        if (status == Status.OK) return "OK " + Money.format(balance) + " #" + sequence;
+        return status == Status.REJECTED ? "REJECTED " + reason : "INVALID";
+    }
+}
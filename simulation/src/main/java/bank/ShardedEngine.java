@@ -0,0 +1,277 @@
+/*
+ * ShardedEngine.java
+ * Single-writer execution mode. Accounts are partitioned into shards by
+ * account number, each shard owned by one thread that takes commands from a
+ * pre-allocated ring buffer (in the style of the LMAX Disruptor) and applies
+ * them one after another.
+ *
+ * A shard is a whole set of lock stripes (see AccountLocks): shard =
+ * stripe & (shards - 1). Every stripe lock is therefore only ever taken by one
+ * writer thread. The locks stay, so statements and snapshots read a
+ * consistent account exactly as before, but a writer never waits for another
+ * writer, and each shard's accounts and histories stay hot in its own core's
+ * cache. The exception is a transfer between two shards: it runs on the
+ * source shard and briefly takes the destination's stripe lock too.
+ *
+ * Producers claim ring slots with one atomic increment, fill the
+ * pre-allocated command in place and publish it by writing its sequence
+ * number, so submitting allocates nothing. A producer only waits when the
+ * ring is full. The shard thread drains everything published so far as one
+ * acknowledgement batch (as BankServer does for pipelined requests), so a
+ * batch shares one journal commit. Only then does it call each command's
+ * Completion, in order, from the shard thread. Completions must be quick and
+ * must not block. If the commit fails, every command of the batch that
+ * succeeded completes as FAILED instead (its change was applied but may not
+ * be durable); refused and invalid commands keep their status, since they
+ * changed nothing. The shard carries on with the next batch.
+ *
+ * Statuses are the ones BankProtocol uses on the wire.
+ */
+
+package bank;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+final class ShardedEngine implements Closeable {
+    static final int DEFAULT_RING_SIZE = 4096;
+
+    static final byte DEPOSIT = BankProtocol.DEPOSIT;
+    static final byte WITHDRAW = BankProtocol.WITHDRAW;
+    static final byte TRANSFER = BankProtocol.TRANSFER;
+    static final byte BALANCE = BankProtocol.BALANCE;
+
+    // Receives the outcome of a command on its shard's thread; balance is the
+    // account's (for TRANSFER the source account's) balance afterwards.
+    interface Completion {
+        void completed(long tag, byte status, long balance);
+    }
+
+    private final Shard[] shards;
+
+    ShardedEngine(int shardCount, int ringSize) {
+        if (Integer.bitCount(shardCount) != 1 || shardCount > AccountLocks.stripes()) {
+            throw new IllegalArgumentException("Shard count must be a power of two, at most " + AccountLocks.stripes());
+        }
+        if (Integer.bitCount(ringSize) != 1) throw new IllegalArgumentException("Ring size must be a power of two");
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard(i, ringSize);
+        for (Shard s : shards) s.thread.start();
+    }
+
+    int shards() {
+        return shards.length;
+    }
+
+    int shardOf(String accountNumber) {
+        return AccountLocks.stripeOf(accountNumber) & (shards.length - 1);
+    }
+
+    void deposit(String number, long amount, long tag, Completion completion) {
+        submit(DEPOSIT, number, null, amount, tag, completion);
+    }
+
+    void withdraw(String number, long amount, long tag, Completion completion) {
+        submit(WITHDRAW, number, null, amount, tag, completion);
+    }
+
+    void transfer(String from, String to, long amount, long tag, Completion completion) {
+        submit(TRANSFER, from, to, amount, tag, completion);
+    }
+
+    void balance(String number, long tag, Completion completion) {
+        submit(BALANCE, number, null, 0, tag, completion);
+    }
+
+    private void submit(byte op, String number, String target, long amount, long tag, Completion completion) {
+        shards[shardOf(number)].publish(op, number, target, amount, tag, completion);
+    }
+
+    // Stops the shard threads once they have run every command already
+    // published.
+    @Override
+    public void close() {
+        for (Shard s : shards) {
+            s.running = false;
+            LockSupport.unpark(s.thread);
+        }
+        for (Shard s : shards) {
+            try {
+                s.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // A ring slot. Written by the producer that claimed it, then read and
+    // completed by the shard thread; the published sequence orders the two.
+    private static final class Command {
+        byte op;
+        String number;
+        String target;
+        long amount;
+        long tag;
+        Completion completion;
+        byte status;
+        long balance;
+    }
+
+    private static final class Shard {
+        // Spins (yielding) this many times on an empty ring before parking.
+        private static final int SPINS = 100;
+
+        final Command[] ring;
+        final int mask;
+        // published[i] is the sequence of the command last published in slot
+        // i, so the consumer can tell a filled slot from one still being
+        // written after a later claim.
+        final AtomicLongArray published;
+        final AtomicLong claimed = new AtomicLong();
+        final Thread thread;
+        // Highest sequence whose command has completed; its slot is free again.
+        volatile long consumed = -1;
+        volatile boolean sleeping;
+        volatile boolean running = true;
+        // Only touched by the shard thread.
+        private final OperationResult result = new OperationResult();
+
+        Shard(int index, int size) {
+            ring = new Command[size];
+            for (int i = 0; i < size; i++) ring[i] = new Command();
+            mask = size - 1;
+            published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) published.set(i, -1);
+            thread = new Thread(this::run, "bank-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void publish(byte op, String number, String target, long amount, long tag, Completion completion) {
+            long seq = claimed.getAndIncrement();
+            // Wait for the slot's previous command to complete.
+            while (seq - ring.length > consumed) Thread.yield();
+            int slot = (int) seq & mask;
+            Command c = ring[slot];
+            c.op = op;
+            c.number = number;
+            c.target = target;
+            c.amount = amount;
+            c.tag = tag;
+            c.completion = completion;
+            published.set(slot, seq);
+            if (sleeping) LockSupport.unpark(thread);
+        }
+
+        private void run() {
+            long next = 0;
+            int idle = 0;
+            while (true) {
+                int n = 0;
+                boolean durable = true;
+                Account.beginAcknowledgementBatch();
+                try {
+                    while (n < ring.length && published.get((int) (next + n) & mask) == next + n) {
+                        execute(ring[(int) (next + n) & mask]);
+                        n++;
+                    }
+                } finally {
+                    try {
+                        Account.endAcknowledgementBatch();
+                    } catch (RuntimeException e) {
+                        // Dying here would leave producers spinning on a ring
+                        // nobody drains.
+                        System.err.println("Shard batch commit failed: " + e);
+                        durable = false;
+                    }
+                }
+                if (n > 0) {
+                    for (int i = 0; i < n; i++) {
+                        Command c = ring[(int) (next + i) & mask];
+                        if (!durable && c.status == BankProtocol.OK) c.status = BankProtocol.FAILED;
+                        complete(c);
+                    }
+                    next += n;
+                    consumed = next - 1;
+                    idle = 0;
+                } else if (!running) {
+                    return;
+                } else if (++idle < SPINS) {
+                    Thread.yield();
+                } else {
+                    sleeping = true;
+                    if (published.get((int) next & mask) != next && running) LockSupport.park(this);
+                    sleeping = false;
+                }
+            }
+        }
+
+        // Commands use the non-throwing account API with this shard's one
+        // result object, so a refused withdrawal costs no exception either.
+        private void execute(Command c) {
+            try {
+                Account acc = BankSimulation.findAccount(c.number);
+                if (acc == null) {
+                    c.status = BankProtocol.NOT_FOUND;
+                    return;
+                }
+                switch (c.op) {
+                    case DEPOSIT:
+                        acc.tryDeposit(c.amount, result);
+                        break;
+                    case WITHDRAW:
+                        acc.tryWithdraw(c.amount, result);
+                        break;
+                    case TRANSFER: {
+                        Account to = BankSimulation.findAccount(c.target);
+                        if (to == null) {
+                            c.status = BankProtocol.NOT_FOUND;
+                            return;
+                        }
+                        Account.tryTransfer(acc, to, c.amount, result);
+                        break;
+                    }
+                    case BALANCE:
+                        result.ok(acc.getBalance());
+                        break;
+                    default:
+                        c.status = BankProtocol.UNKNOWN_OP;
+                        return;
+                }
+                switch (result.status()) {
+                    case OK:
+                        c.status = BankProtocol.OK;
+                        c.balance = result.balance();
+                        break;
+                    case REJECTED:
+                        c.status = BankProtocol.INSUFFICIENT_FUNDS;
+                        break;
+                    default:
+                        c.status = BankProtocol.INVALID;
+                }
+            } catch (IllegalArgumentException e) {
+                c.status = BankProtocol.INVALID;
+            } catch (RuntimeException e) {
+                c.status = BankProtocol.FAILED;
+            }
+        }
+
+        private static void complete(Command c) {
+            Completion completion = c.completion;
+            long tag = c.tag;
+            byte status = c.status;
+            long balance = status == BankProtocol.OK ? c.balance : 0;
+            // Drop references so the ring does not keep them alive.
+            c.number = null;
+            c.target = null;
+            c.completion = null;
+            c.balance = 0;
+            try {
+                if (completion != null) completion.completed(tag, status, balance);
+            } catch (RuntimeException e) {
+                System.err.println("Completion failed: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * StatementFormatter.java
+ * Renders account statements into a reusable char buffer, producing exactly
+ * the text of the original printStatement: the same header lines, and each
+ * row as Transaction.toTableString() formats it with String.format and
+ * LocalDateTime.toString(). Amounts, timestamps and padding are written
+ * digit by digit. The zone offset is cached for the stretch of time between
+ * two zone transitions, so rows allocate nothing.
+ *
+ * The buffer goes to the PrintStream whole, as a char[], so the PrintStream
+ * still encodes it with its own charset. Only the last, partial buffer of a
+ * statement becomes a String. A statement costs a handful of writes instead
+ * of a println per row. What is left to allocate is the history copy that
+ * printStatement takes under the lock.
+ *
+ * Instances are not thread-safe; forThread() hands out one per thread.
+ */
+
+package bank;
+
+import java.io.*;
+import java.nio.*;
+import java.time.*;
+import java.time.zone.*;
+
+final class StatementFormatter {
+    private static final ThreadLocal<StatementFormatter> PER_THREAD = ThreadLocal.withInitial(StatementFormatter::new);
+    private static final String NEWLINE = System.lineSeparator();
+    private static final String COLUMNS = "Date & Time           | Type     | Amount     | BalanceAfter | Description";
+    private static final String RULE = "-----------------------+----------+------------+--------------+----------------";
+    private static final String END = "---------------------------------------- End of statement ----------------------------------------";
+    private static final int CAPACITY = 16 * 1024;
+
+    private final char[] buf = new char[CAPACITY];
+    private final CharBuffer view = CharBuffer.wrap(buf);
+    private final char[] scratch = new char[32];
+    private int len;
+    private long flushed;
+    private PrintStream out;
+
+    private final ZoneRules rules = ZoneId.systemDefault().getRules();
+    // Epoch seconds [offsetFrom, offsetTo) share offsetSeconds.
+    private long offsetFrom = 1;
+    private long offsetTo = 0;
+    private int offsetSeconds;
+
+    static StatementFormatter forThread() {
+        return PER_THREAD.get();
+    }
+
+    // Prints the statement: archived entries (may be null) come first, then
+    // the retained part of entries.
+    void print(PrintStream out, String number, String holder, long balance, TransactionHistory archived,
+               TransactionHistory entries) {
+        this.out = out;
+        try {
+            append(NEWLINE).append("--- Statement for ").append(number).append(" (").append(holder).append(") ---").append(NEWLINE);
+            append("Current balance: ");
+            money(balance, 0);
+            append(NEWLINE).append(COLUMNS).append(NEWLINE).append(RULE).append(NEWLINE);
+            if (archived != null) rows(archived);
+            rows(entries);
+            append(END).append(NEWLINE);
+            flush();
+        } finally {
+            this.out = null;
+            len = 0;
+            flushed = 0;
+        }
+    }
+
+    private void rows(TransactionHistory h) {
+        for (int i = h.firstRetained(); i < h.size(); i++) {
+            row(h.timeAt(i), h.typeAt(i), h.amountAt(i), h.balanceAt(i), h.descriptionAt(i), h.referenceAt(i));
+            append(NEWLINE);
+        }
+    }
+
+    // "%-22s | %-8s | %10s | %12s | %s" as in Transaction.toTableString().
+    private void row(long epochNanos, TransactionType type, long amount, long balanceAfter, String desc, long ref) {
+        long start = position();
+        timestamp(epochNanos);
+        pad(start, 22);
+        append(" | ");
+        start = position();
+        append(type.name());
+        pad(start, 8);
+        append(" | ");
+        money(amount, 10);
+        append(" | ");
+        money(balanceAfter, 12);
+        append(" | ").append(String.valueOf(desc));
+        if (ref != 0) {
+            append(" (ref T");
+            number(ref);
+            append(')');
+        }
+    }
+
+    // LocalDateTime.toString() of the instant in the system zone:
+    // yyyy-MM-ddTHH:mm, then :ss if seconds or nanos are set, then the
+    // fraction in 3, 6 or 9 digits, whichever is exact.
+    private void timestamp(long epochNanos) {
+        long second = Math.floorDiv(epochNanos, 1_000_000_000L);
+        int nano = (int) Math.floorMod(epochNanos, 1_000_000_000L);
+        long local = second + offsetAt(second, nano);
+        long date = EpochDays.civil(Math.floorDiv(local, 86_400));
+        int ofDay = (int) Math.floorMod(local, 86_400L);
+        long year = EpochDays.year(date);
+        if (Math.abs(year) < 1000) {
+            if (year < 0) append('-');
+            digits(Math.abs(year), 4);
+        } else {
+            if (year > 9999) append('+');
+            number(year);
+        }
+        append('-');
+        digits(EpochDays.month(date), 2);
+        append('-');
+        digits(EpochDays.day(date), 2);
+        append('T');
+        digits(ofDay / 3600, 2);
+        append(':');
+        digits(ofDay / 60 % 60, 2);
+        int sec = ofDay % 60;
+        if (sec > 0 || nano > 0) {
+            append(':');
+            digits(sec, 2);
+            if (nano > 0) {
+                append('.');
+                if (nano % 1_000_000 == 0) digits(nano / 1_000_000, 3);
+                else if (nano % 1000 == 0) digits(nano / 1000, 6);
+                else digits(nano, 9);
+            }
+        }
+    }
+
+    private int offsetAt(long second, int nano) {
+        if (second >= offsetFrom && second < offsetTo) return offsetSeconds;
+        Instant instant = Instant.ofEpochSecond(second, nano);
+        offsetSeconds = rules.getOffset(instant).getTotalSeconds();
+        if (rules.isFixedOffset()) {
+            offsetFrom = Long.MIN_VALUE;
+            offsetTo = Long.MAX_VALUE;
+        } else {
+            // Statements run oldest first, so cache forward from here.
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            offsetFrom = second;
+            offsetTo = next == null ? Long.MAX_VALUE : next.toEpochSecond();
+        }
+        return offsetSeconds;
+    }
+
+    // Money.format(minor), right-aligned to width.
+    private void money(long minor, int width) {
+        int n = scratch.length;
+        long major = Math.abs(minor / Money.MINOR_PER_MAJOR);
+        int cents = (int) Math.abs(minor % Money.MINOR_PER_MAJOR);
+        scratch[--n] = (char) ('0' + cents % 10);
+        scratch[--n] = (char) ('0' + cents / 10);
+        scratch[--n] = '.';
+        do {
+            scratch[--n] = (char) ('0' + major % 10);
+            major /= 10;
+        } while (major != 0);
+        if (minor < 0) scratch[--n] = '-';
+        for (int i = scratch.length - n; i < width; i++) append(' ');
+        append(scratch, n, scratch.length - n);
+    }
+
+    private void number(long v) {
+        if (v == Long.MIN_VALUE) {
+            append(Long.toString(v));
+            return;
+        }
+        if (v < 0) {
+            append('-');
+            v = -v;
+        }
+        int n = scratch.length;
+        do {
+            scratch[--n] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        append(scratch, n, scratch.length - n);
+    }
+
+    // v zero-padded to exactly width digits.
+    private void digits(long v, int width) {
+        int n = scratch.length;
+        for (int i = 0; i < width; i++) {
+            scratch[--n] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        append(scratch, n, width);
+    }
+
+    // Characters rendered so far in this statement, flushed or not.
+    private long position() {
+        return flushed + len;
+    }
+
+    // Pads with spaces up to width characters rendered since start.
+    private void pad(long start, int width) {
+        for (long i = position() - start; i < width; i++) append(' ');
+    }
+
+    private StatementFormatter append(String s) {
+        int n = s.length();
+        for (int off = 0; off < n; ) {
+            if (len == buf.length) flushFull();
+            int chunk = Math.min(n - off, buf.length - len);
+            s.getChars(off, off + chunk, buf, len);
+            len += chunk;
+            off += chunk;
+        }
+        return this;
+    }
+
+    private void append(char[] src, int off, int n) {
+        while (n > 0) {
+            if (len == buf.length) flushFull();
+            int chunk = Math.min(n, buf.length - len);
+            System.arraycopy(src, off, buf, len, chunk);
+            len += chunk;
+            off += chunk;
+            n -= chunk;
+        }
+    }
+
+    private void append(char c) {
+        if (len == buf.length) flushFull();
+        buf[len++] = c;
+    }
+
+    // A full buffer goes out as the char[] itself, which the PrintStream
+    // encodes without making a String of it.
+    private void flushFull() {
+        out.print(buf);
+        flushed += len;
+        len = 0;
+    }
+
+    // The last, partial buffer of a statement.
+    private void flush() {
+        if (len == buf.length) {
+            flushFull();
+        } else if (len > 0) {
+            view.limit(len).position(0);
+            out.append(view);
+            flushed += len;
+            len = 0;
+        }
+    }
+}
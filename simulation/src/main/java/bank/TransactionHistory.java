@@ -0,0 +1,351 @@
+/*
+ * TransactionHistory.java
+ * Columnar, append-only store for an account's transaction history.
+ *
+ * Instead of one Transaction object (plus a LocalDateTime and its date/time
+ * parts) per entry, each field lives in its own primitive array:
+ *
+ *   time          long   epoch nanoseconds (UTC)
+ *   type          byte   TransactionType code
+ *   amount        long   minor units
+ *   balanceAfter  long   minor units
+ *   description   int    id into the shared Descriptions table
+ *   reference     long   transfer reference (only allocated once needed)
+ *   text          String transfer descriptions, which name the other account
+ *                        and so are not interned (only allocated once needed)
+ *
+ * That is about 29 bytes per entry. Transaction objects are only created as
+ * short-lived views when an entry is read.
+ *
+ * Entries are addressed by their index in the account's full history. When
+ * the account is journaled, older entries can be dropped from the heap with
+ * trimTo(); firstRetained() tells callers where the in-memory part starts and
+ * anything before it has to be read back from the journal.
+ *
+ * Not thread-safe: Account guards its history with the account lock.
+ */
+
+package bank;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+final class TransactionHistory {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final long[] NO_LONGS = new long[0];
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final int[] NO_INTS = new int[0];
+
+    private long[] times;
+    private byte[] types;
+    private long[] amounts;
+    private long[] balances;
+    private int[] descriptions;
+    private long[] references;
+    private String[] texts;
+    private int base;   // history index of the first retained entry
+    private int count;  // number of retained entries
+
+    TransactionHistory() {
+        this(INITIAL_CAPACITY);
+    }
+
+    // A capacity of 0 allocates nothing until the first append, which keeps
+    // millions of restored accounts with no on-heap entries cheap.
+    TransactionHistory(int capacity) {
+        times = capacity == 0 ? NO_LONGS : new long[capacity];
+        types = capacity == 0 ? NO_BYTES : new byte[capacity];
+        amounts = capacity == 0 ? NO_LONGS : new long[capacity];
+        balances = capacity == 0 ? NO_LONGS : new long[capacity];
+        descriptions = capacity == 0 ? NO_INTS : new int[capacity];
+    }
+
+    void append(long epochNanos, TransactionType type, long amount, long balanceAfter, String description, long reference) {
+        if (count == times.length) grow();
+        int i = count;
+        times[i] = epochNanos;
+        types[i] = type.code();
+        amounts[i] = amount;
+        balances[i] = balanceAfter;
+        if (type == TransactionType.XFER_IN || type == TransactionType.XFER_OUT) {
+            if (texts == null) texts = new String[times.length];
+            texts[i] = description;
+            descriptions[i] = Descriptions.NOT_INTERNED;
+        } else {
+            descriptions[i] = Descriptions.idOf(description);
+        }
+        if (reference != 0) {
+            if (references == null) references = new long[times.length];
+            references[i] = reference;
+        }
+        count = i + 1;
+    }
+
+    // Drops the entry just appended, whose journal write failed (see
+    // Account.addTransaction).
+    void removeLast() {
+        if (count == 0) throw new IllegalStateException("No retained entry to remove");
+        count--;
+        if (references != null) references[count] = 0;
+        if (texts != null) texts[count] = null;
+    }
+
+    // Total number of entries ever recorded, including trimmed ones.
+    int size() { return base + count; }
+
+    int firstRetained() { return base; }
+
+    int retained() { return count; }
+
+    void clear() {
+        if (references != null) Arrays.fill(references, 0, count, 0);
+        if (texts != null) Arrays.fill(texts, 0, count, null);
+        base = 0;
+        count = 0;
+    }
+
+    // Starts an empty history whose first entry will have the given index,
+    // used when entries are read back from the journal.
+    static TransactionHistory startingAt(int firstIndex, int capacity) {
+        TransactionHistory h = new TransactionHistory(capacity);
+        h.base = firstIndex;
+        return h;
+    }
+
+    // Drops the oldest retained entries so that at most keep remain on heap.
+    // Journaled accounts trim every keep entries, so the kept entries are
+    // moved down in place unless the arrays have grown far past what they
+    // need to hold.
+    void trimTo(int keep) {
+        int drop = count - keep;
+        if (drop <= 0) return;
+        int capacity = Math.max(keep + (keep >> 1), INITIAL_CAPACITY);
+        if (times.length <= 2 * capacity) {
+            System.arraycopy(times, drop, times, 0, keep);
+            System.arraycopy(types, drop, types, 0, keep);
+            System.arraycopy(amounts, drop, amounts, 0, keep);
+            System.arraycopy(balances, drop, balances, 0, keep);
+            System.arraycopy(descriptions, drop, descriptions, 0, keep);
+            // append() only writes non-zero references, so clear the vacated slots.
+            if (references != null) {
+                System.arraycopy(references, drop, references, 0, keep);
+                Arrays.fill(references, keep, count, 0);
+            }
+            if (texts != null) {
+                System.arraycopy(texts, drop, texts, 0, keep);
+                Arrays.fill(texts, keep, count, null);
+            }
+            base += drop;
+            count = keep;
+            return;
+        }
+        times = Arrays.copyOfRange(times, drop, drop + capacity);
+        types = Arrays.copyOfRange(types, drop, drop + capacity);
+        amounts = Arrays.copyOfRange(amounts, drop, drop + capacity);
+        balances = Arrays.copyOfRange(balances, drop, drop + capacity);
+        descriptions = Arrays.copyOfRange(descriptions, drop, drop + capacity);
+        if (references != null) references = Arrays.copyOfRange(references, drop, drop + capacity);
+        if (texts != null) texts = Arrays.copyOfRange(texts, drop, drop + capacity);
+        base += drop;
+        count = keep;
+    }
+
+    long timeAt(int i) { return times[check(i)]; }
+    TransactionType typeAt(int i) { return TransactionType.fromCode(types[check(i)]); }
+    long amountAt(int i) { return amounts[check(i)]; }
+    long balanceAt(int i) { return balances[check(i)]; }
+    String descriptionAt(int i) {
+        int slot = check(i);
+        int id = descriptions[slot];
+        return id == Descriptions.NOT_INTERNED ? texts[slot] : Descriptions.get(id);
+    }
+    // Descriptions.NOT_INTERNED for a transfer, whose text is only in descriptionAt.
+    int descriptionIdAt(int i) { return descriptions[check(i)]; }
+    long referenceAt(int i) { int slot = check(i); return references == null ? 0 : references[slot]; }
+
+    // Flyweight view of entry i. Pass a previous view back in to reuse it.
+    Transaction view(int i, Transaction reuse) {
+        check(i);
+        if (reuse == null) return new Transaction(this, i);
+        return reuse.moveTo(this, i);
+    }
+
+    // Independent copy of the retained entries, used to read a consistent
+    // history without holding the account lock.
+    TransactionHistory copy() {
+        return copy(base, base + count);
+    }
+
+    // Independent copy of retained entries [from, to).
+    TransactionHistory copy(int from, int to) {
+        if (from > to) throw new IndexOutOfBoundsException("Entries [" + from + ", " + to + ")");
+        int start = from == to ? 0 : check(from);
+        int end = from == to ? 0 : check(to - 1) + 1;
+        TransactionHistory c = new TransactionHistory(0);
+        c.times = Arrays.copyOfRange(times, start, end);
+        c.types = Arrays.copyOfRange(types, start, end);
+        c.amounts = Arrays.copyOfRange(amounts, start, end);
+        c.balances = Arrays.copyOfRange(balances, start, end);
+        c.descriptions = Arrays.copyOfRange(descriptions, start, end);
+        c.references = references == null ? null : Arrays.copyOfRange(references, start, end);
+        c.texts = texts == null ? null : Arrays.copyOfRange(texts, start, end);
+        c.base = from;
+        c.count = end - start;
+        return c;
+    }
+
+    // History index of the first retained entry stamped at or after
+    // epochNanos, or size() if there is none. Entries are appended in time
+    // order, so this is a binary search.
+    int indexAtOrAfter(long epochNanos) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < epochNanos) lo = mid + 1;
+            else hi = mid;
+        }
+        return base + lo;
+    }
+
+    // History index of the first retained entry stamped after epochNanos, or
+    // size() if there is none; the entry before it is the last one at or
+    // before epochNanos.
+    int indexAfter(long epochNanos) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= epochNanos) lo = mid + 1;
+            else hi = mid;
+        }
+        return base + lo;
+    }
+
+    // Maps a history index to its slot in the arrays.
+    private int check(int i) {
+        if (i < base || i >= base + count) {
+            throw new IndexOutOfBoundsException("Entry " + i + " not in [" + base + ", " + (base + count) + ")");
+        }
+        return i - base;
+    }
+
+    private void grow() {
+        int capacity = Math.max(times.length + (times.length >> 1), INITIAL_CAPACITY);
+        times = Arrays.copyOf(times, capacity);
+        types = Arrays.copyOf(types, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        balances = Arrays.copyOf(balances, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+        if (references != null) references = Arrays.copyOf(references, capacity);
+        if (texts != null) texts = Arrays.copyOf(texts, capacity);
+    }
+}
+
+enum TransactionType {
+    OPEN, DEPOSIT, WITHDRAW, INTEREST, FEE, XFER_IN, XFER_OUT;
+
+    private static final TransactionType[] BY_CODE = values();
+
+    byte code() { return (byte) ordinal(); }
+
+    // The balance after an entry of this type for amount is applied to balance.
+    long applyTo(long balance, long amount) {
+        switch (this) {
+            case OPEN: return amount;
+            case DEPOSIT:
+            case INTEREST:
+            case XFER_IN: return balance + amount;
+            default: return balance - amount;
+        }
+    }
+
+    static TransactionType fromCode(byte code) { return BY_CODE[code]; }
+}
+
+// Process-wide intern table for history descriptions. Descriptions repeat
+// heavily ("Deposit", "Overdraft fee applied"), so each history entry stores
+// a 4-byte id instead of a String reference. Transfer descriptions name the
+// other account, so there is one per account and they are never interned:
+// the table only ever holds the handful of fixed descriptions.
+final class Descriptions {
+    // Id stored for an entry whose description is kept as text instead.
+    static final int NOT_INTERNED = -1;
+    // Accounts whose transfer descriptions are cached; beyond that they are
+    // built per transfer.
+    private static final int MAX_CACHED_TRANSFERS = 4096;
+    private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] byId = new String[64];
+    // UTF-8 encodings for the journal, indexed like byId.
+    private static volatile byte[][] utf8ById = new byte[64][];
+    private static final ConcurrentMap<String, String> TRANSFER_TO = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> TRANSFER_FROM = new ConcurrentHashMap<>();
+    // Encodings of the cached transfer descriptions, keyed by the description.
+    private static final ConcurrentMap<String, byte[]> TRANSFER_UTF8 = new ConcurrentHashMap<>();
+    private static int count;
+
+    private Descriptions() { }
+
+    static int idOf(String description) {
+        Integer id = IDS.get(description);
+        return id != null ? id : register(description);
+    }
+
+    static String get(int id) {
+        return byId[id];
+    }
+
+    // UTF-8 bytes of an interned description; shared, so callers must not
+    // modify them.
+    static byte[] utf8(int id) {
+        return utf8ById[id];
+    }
+
+    // UTF-8 bytes of a description kept as text: cached for the transfer
+    // descriptions that transferTo/transferFrom cache, encoded otherwise.
+    static byte[] utf8(String text) {
+        byte[] bytes = TRANSFER_UTF8.get(text);
+        return bytes != null ? bytes : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // "Transfer to <number>" / "Transfer from <number>", built once for each
+    // of the first MAX_CACHED_TRANSFERS accounts to take part in a transfer so
+    // the busiest ones do not concatenate a new String each time.
+    static String transferTo(String accountNumber) {
+        return transfer(TRANSFER_TO, "Transfer to ", accountNumber);
+    }
+
+    static String transferFrom(String accountNumber) {
+        return transfer(TRANSFER_FROM, "Transfer from ", accountNumber);
+    }
+
+    private static String transfer(ConcurrentMap<String, String> cache, String prefix, String accountNumber) {
+        String desc = cache.get(accountNumber);
+        if (desc != null) return desc;
+        desc = prefix + accountNumber;
+        if (cache.size() < MAX_CACHED_TRANSFERS) {
+            String cached = cache.putIfAbsent(accountNumber, desc);
+            if (cached != null) return cached;
+            TRANSFER_UTF8.put(desc, desc.getBytes(StandardCharsets.UTF_8));
+        }
+        return desc;
+    }
+
+    private static synchronized int register(String description) {
+        Integer id = IDS.get(description);
+        if (id != null) return id;
+        String[] table = byId;
+        byte[][] encoded = utf8ById;
+        if (count == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+            encoded = Arrays.copyOf(encoded, table.length);
+        }
+        table[count] = description;
+        encoded[count] = description.getBytes(StandardCharsets.UTF_8);
+        utf8ById = encoded;
+        byId = table;
+        IDS.put(description, count);
+        return count++;
+    }
+}